@@ -0,0 +1,206 @@
+package P13_Chain_of_Responsibility;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+// 責任の連鎖を「パイプライン」として非同期に動かす版。
+//
+// 1. 各ハンドラー（ステージ）は、自分専用の有界キューを持つ。
+// 2. ステージごとにスレッドが1本いて、キューからリクエストを取り出す。
+// 3. 処理できれば handleRequest() で処理して、CompletableFuture を完了させる。
+// 4. 処理できなければ、次のステージのキューに渡す（passToNext の非同期版）。
+//
+// 呼び出し側は submit() で CompletableFuture を受け取るだけなので、I/O待ちのハンドラーがいても詰まらない。
+// キューが一杯になった時の振る舞い（バックプレッシャー）は BackpressurePolicy で選べる。
+//
+// 本来は仮想スレッド（Java 21 の Thread.ofVirtual()）が向いているが、
+// Java 17 でも動くように、ここではデーモンスレッドを使っている。
+// 同期版の handleRequest() はそのまま使える。
+
+// キューが一杯の時の振る舞い
+enum BackpressurePolicy {
+    BLOCK,   // 空くまで待つ（タイムアウト付き）
+    REJECT,  // すぐに諦めて、Future を例外で完了させる
+}
+
+// 非同期チェーン本体
+class AsyncHandlerChain implements AutoCloseable {
+
+    // キューに流れるもの。リクエストと、その結果を待っている Future のペア。
+    private static class Envelope {
+        final Request request;
+        final CompletableFuture<String> result;
+
+        Envelope(Request request, CompletableFuture<String> result) {
+            this.request = request;
+            this.result = result;
+        }
+    }
+
+    // 1つのハンドラーと、そのキューと、それを回すスレッド
+    private class Stage implements Runnable {
+        final Handler handler;
+        final BlockingQueue<Envelope> queue;
+        Stage next;
+
+        Stage(Handler handler, int capacity) {
+            this.handler = handler;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Envelope envelope = queue.take();
+                    try {
+                        if (handler.canHandle(envelope.request)) {
+                            handler.handleRequest(envelope.request);
+                            envelope.result.complete(handler.getClass().getSimpleName());
+                        } else if (next != null) {
+                            enqueue(next, envelope);
+                        } else {
+                            envelope.result.completeExceptionally(new IllegalStateException(
+                                    "No handler can process this request: " + envelope.request.getType()));
+                        }
+                    } catch (RuntimeException e) {
+                        envelope.result.completeExceptionally(e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private final List<Stage> stages = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private final BackpressurePolicy policy;
+    private final long blockTimeoutMillis;
+    private volatile boolean closed = false;
+
+    public AsyncHandlerChain(List<Handler> handlers, int queueCapacity,
+                             BackpressurePolicy policy, long blockTimeoutMillis) {
+        if (handlers.isEmpty()) {
+            throw new IllegalArgumentException("handlers must not be empty");
+        }
+        this.policy = policy;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+
+        for (Handler handler : handlers) {
+            Stage stage = new Stage(handler, queueCapacity);
+            if (!stages.isEmpty()) {
+                stages.get(stages.size() - 1).next = stage;
+            }
+            stages.add(stage);
+        }
+        for (Stage stage : stages) {
+            Thread thread = new Thread(stage, "chain-" + stage.handler.getClass().getSimpleName());
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+    }
+
+    // リクエストを先頭のステージに投入する。結果は処理したハンドラー名。
+    // close() の後は、例外（RejectedExecutionException）で完了した Future を返す。
+    public CompletableFuture<String> submit(Request request) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        if (closed) {
+            result.completeExceptionally(new RejectedExecutionException("Chain is closed"));
+            return result;
+        }
+        enqueue(stages.get(0), new Envelope(request, result));
+        if (closed) {
+            // close() と入れ違いになって、キューに残ってしまった分を片付ける
+            cancelQueued();
+        }
+        return result;
+    }
+
+    private void enqueue(Stage stage, Envelope envelope) {
+        boolean accepted;
+        try {
+            if (policy == BackpressurePolicy.BLOCK) {
+                accepted = stage.queue.offer(envelope, blockTimeoutMillis, TimeUnit.MILLISECONDS);
+            } else {
+                accepted = stage.queue.offer(envelope);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            accepted = false;
+        }
+        if (!accepted) {
+            envelope.result.completeExceptionally(new RejectedExecutionException(
+                    "Queue is full: " + stage.handler.getClass().getSimpleName()));
+        }
+    }
+
+    // ステージのスレッドを止め、キューに残っていたリクエストの Future は CancellationException で完了させる
+    // （待っている呼び出し側が、いつまでも待たされないように）。
+    @Override
+    public void close() {
+        closed = true;
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        cancelQueued();
+    }
+
+    private void cancelQueued() {
+        for (Stage stage : stages) {
+            Envelope envelope;
+            while ((envelope = stage.queue.poll()) != null) {
+                envelope.result.completeExceptionally(new CancellationException("Chain is closed"));
+            }
+        }
+    }
+}
+
+public class AsyncChainDemo {
+    public static void main(String[] args) {
+        System.out.println("=== 非同期の責任の連鎖のデモ ===\n");
+
+        List<Handler> handlers = List.of(
+            new ConcreteHandlerDog(),
+            new ConcreteHandlerBear(),
+            new ConcreteHandlerCat()
+        );
+
+        try (AsyncHandlerChain chain = new AsyncHandlerChain(handlers, 16, BackpressurePolicy.BLOCK, 1000)) {
+            // 投げるだけ投げて、結果はあとでまとめて受け取る
+            List<CompletableFuture<String>> results = new ArrayList<>();
+            for (String type : new String[] {"Dog", "Bear", "Cat", "Lion"}) {
+                results.add(chain.submit(new Request(type, "Request " + type + " content")));
+            }
+
+            for (CompletableFuture<String> result : results) {
+                String message = result
+                    .thenApply(name -> "processed by " + name)
+                    .exceptionally(e -> "failed: " + e.getCause().getMessage())
+                    .join();
+                System.out.println("結果: " + message);
+            }
+        }
+
+        // 同期版もそのまま使える
+        System.out.println("\n--- 同期版 ---");
+        Handler handlerDog = new ConcreteHandlerDog();
+        handlerDog.setNext(new ConcreteHandlerCat());
+        handlerDog.handleRequest(new Request("Cat", "Request Cat content"));
+    }
+}
@@ -0,0 +1,130 @@
+package P13_Chain_of_Responsibility;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// handleRequest を1件ずつ呼ぶ場合と、handleBatch でまとめて渡す場合のスループットを比べる。
+//
+// デモのハンドラーは println するので計測にならない。ここでは出力しないハンドラーを使う。
+// 各ハンドラーは呼び出しごとに「準備処理」（接続の確保などのつもり）をするので、
+// まとめて渡すと、チェーンを辿る回数と準備処理の回数の両方が減る。
+//
+// 実行例:
+//   javac -encoding UTF-8 -d out P13_Chain_of_Responsibility/*.java
+//   java -cp out P13_Chain_of_Responsibility.BatchChainBenchmark
+//
+// 手元（8種類のハンドラー、200万件、JDK 17）での結果の一例:
+//   batch size      1 :  handleRequest   31.5 M req/s,  handleBatch   11.6 M req/s
+//   batch size     10 :  handleRequest   37.7 M req/s,  handleBatch   25.3 M req/s
+//   batch size    100 :  handleRequest   34.8 M req/s,  handleBatch   47.1 M req/s
+//   batch size   1000 :  handleRequest   38.8 M req/s,  handleBatch   69.3 M req/s
+//   batch size  10000 :  handleRequest   38.6 M req/s,  handleBatch   68.2 M req/s
+// バッチが小さいとグループ化の手間の方が大きいので、1件ずつの方が速い。
+
+// 出力しないハンドラー。処理件数を数えるだけ。
+class CountingHandler extends Handler {
+    private final String type;
+    private long processed;
+    private long setupCount;
+
+    public CountingHandler(String type) {
+        this.type = type;
+    }
+
+    @Override
+    public boolean canHandle(Request request) {
+        return type.equals(request.getType());
+    }
+
+    @Override
+    public void handleRequest(Request request) {
+        if (canHandle(request)) {
+            setup();
+            processed++;
+        } else if (next != null) {
+            next.handleRequest(request);
+        }
+    }
+
+    @Override
+    protected void handleGroup(List<Request> requests) {
+        setup();
+        processed += requests.size();
+    }
+
+    // 呼び出しごとの準備処理のつもり
+    private void setup() {
+        setupCount++;
+    }
+
+    public long getProcessed() {
+        return processed;
+    }
+
+    public long getSetupCount() {
+        return setupCount;
+    }
+}
+
+public class BatchChainBenchmark {
+    private static final String[] TYPES = {"Dog", "Bear", "Cat", "Fox", "Owl", "Elk", "Yak", "Emu"};
+    private static final int TOTAL_REQUESTS = 2_000_000;
+
+    public static void main(String[] args) {
+        List<CountingHandler> handlers = new ArrayList<>();
+        for (String type : TYPES) {
+            handlers.add(new CountingHandler(type));
+        }
+        for (int i = 0; i + 1 < handlers.size(); i++) {
+            handlers.get(i).setNext(handlers.get(i + 1));
+        }
+        Handler head = handlers.get(0);
+
+        Random random = new Random(42);
+        List<Request> requests = new ArrayList<>(TOTAL_REQUESTS);
+        for (int i = 0; i < TOTAL_REQUESTS; i++) {
+            requests.add(new Request(TYPES[random.nextInt(TYPES.length)], "content " + i));
+        }
+
+        System.out.println("=== 1件ずつ vs まとめて（" + TOTAL_REQUESTS + " 件, " + TYPES.length + " ハンドラー） ===");
+        for (int batchSize : new int[] {1, 10, 100, 1_000, 10_000}) {
+            // JIT のウォームアップを兼ねて数回回し、最後の結果を使う
+            double single = 0;
+            double batch = 0;
+            for (int round = 0; round < 5; round++) {
+                single = runSingle(head, requests);
+                batch = runBatch(head, requests, batchSize);
+            }
+            System.out.printf("batch size %6d :  handleRequest %6.1f M req/s,  handleBatch %6.1f M req/s%n",
+                    batchSize, single, batch);
+        }
+
+        long processed = 0;
+        for (CountingHandler handler : handlers) {
+            processed += handler.getProcessed();
+        }
+        System.out.println("processed total: " + processed);
+    }
+
+    private static double runSingle(Handler head, List<Request> requests) {
+        long start = System.nanoTime();
+        for (Request request : requests) {
+            head.handleRequest(request);
+        }
+        return toMillionsPerSecond(requests.size(), System.nanoTime() - start);
+    }
+
+    private static double runBatch(Handler head, List<Request> requests, int batchSize) {
+        long start = System.nanoTime();
+        for (int from = 0; from < requests.size(); from += batchSize) {
+            int to = Math.min(from + batchSize, requests.size());
+            head.handleBatch(requests.subList(from, to));
+        }
+        return toMillionsPerSecond(requests.size(), System.nanoTime() - start);
+    }
+
+    private static double toMillionsPerSecond(int count, long nanos) {
+        return count / (nanos / 1e9) / 1e6;
+    }
+}
@@ -1,5 +1,10 @@
 package P13_Chain_of_Responsibility;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 // リクエストを処理する複数のハンドラーをチェーン状に並べて、リクエストを処理するパターン
 // ハンドラーは同じリクエストを、同じ形式でリクエストできるよう、同じ抽象クラスを継承している
 // そのハンドラーをチェーン状に並べて、処理できるやつが処理するだけ。
@@ -36,6 +41,13 @@ abstract class Handler {
     
     public abstract void handleRequest(Request request);
     
+    // このハンドラーが処理できるリクエストかどうか
+    // （非同期チェーンなど、handleRequest を呼ぶ前に判定したい場合に使う）
+    // デフォルトは「全部受け取る」。その場合、処理できないものは handleRequest の中で passToNext してもらう。
+    public boolean canHandle(Request request) {
+        return true;
+    }
+    
     // 次のハンドラーにリクエストを渡す
     protected void passToNext(Request request) {
         if (next != null) {
@@ -44,25 +56,82 @@ abstract class Handler {
             System.out.println("No handler can process this request: " + request.getType());
         }
     }
+    
+    // 複数のリクエストをまとめて処理する
+    // 1件ずつ handleRequest するとその都度チェーンを辿るので、
+    // 種類ごとにグループ化して、担当ハンドラーを1回だけ探し、グループごと渡す。
+    public void handleBatch(List<Request> requests) {
+        Map<String, List<Request>> groups = new LinkedHashMap<>();
+        for (Request request : requests) {
+            groups.computeIfAbsent(request.getType(), type -> new ArrayList<>()).add(request);
+        }
+        
+        for (Map.Entry<String, List<Request>> group : groups.entrySet()) {
+            Request first = group.getValue().get(0);
+            Handler handler = this;
+            while (handler != null && !handler.canHandle(first)) {
+                handler = handler.next;
+            }
+            if (handler != null) {
+                handler.handleGroup(group.getValue());
+            } else {
+                System.out.println("No handler can process this request: " + group.getKey()
+                        + " (" + group.getValue().size() + " requests)");
+            }
+        }
+    }
+    
+    // 同じ種類のリクエストをまとめて受け取る
+    // デフォルトでは1件ずつ handleRequest する。
+    // 準備処理（接続やバッファの確保など）を共通化したいハンドラーはオーバーライドする。
+    protected void handleGroup(List<Request> requests) {
+        for (Request request : requests) {
+            handleRequest(request);
+        }
+    }
 }
 
 // 3. 具象ハンドラークラス
 class ConcreteHandlerCat extends Handler {
+    @Override
+    public boolean canHandle(Request request) {
+        return "Cat".equals(request.getType());
+    }
+    
     @Override
     public void handleRequest(Request request) {
-        if ("Cat".equals(request.getType())) {
-            System.out.println("ConcreteHandlerCat processed request: " + request.getContent());
+        if (canHandle(request)) {
+            process(request);
         } else {
             System.out.println("ConcreteHandlerCat cannot process, passing to next handler");
             passToNext(request);
         }
     }
+    
+    // まとめて来た場合は、準備を1回だけして、中身は1件ずつ handleRequest と同じに処理する
+    // （グループは handleBatch が canHandle で確かめた種類だけなので、1件ごとの確認は要らない）
+    @Override
+    protected void handleGroup(List<Request> requests) {
+        System.out.println("ConcreteHandlerCat prepared once for " + requests.size() + " requests");
+        for (Request request : requests) {
+            process(request);
+        }
+    }
+    
+    private void process(Request request) {
+        System.out.println("ConcreteHandlerCat processed request: " + request.getContent());
+    }
 }
 
 class ConcreteHandlerDog extends Handler {
+    @Override
+    public boolean canHandle(Request request) {
+        return "Dog".equals(request.getType());
+    }
+    
     @Override
     public void handleRequest(Request request) {
-        if ("Dog".equals(request.getType())) {
+        if (canHandle(request)) {
             System.out.println("ConcreteHandlerDog processed request: " + request.getContent());
         } else {
             System.out.println("ConcreteHandlerDog cannot process, passing to next handler");
@@ -72,9 +141,14 @@ class ConcreteHandlerDog extends Handler {
 }
 
 class ConcreteHandlerBear extends Handler {
+    @Override
+    public boolean canHandle(Request request) {
+        return "Bear".equals(request.getType());
+    }
+    
     @Override
     public void handleRequest(Request request) {
-        if ("Bear".equals(request.getType())) {
+        if (canHandle(request)) {
             System.out.println("ConcreteHandlerBear processed request: " + request.getContent());
         } else {
             System.out.println("ConcreteHandlerBear cannot process, passing to next handler");
@@ -108,5 +182,15 @@ public class ChainOfResponsibilityDemo {
         
         System.out.println("\n--- Request Lion (no handler) ---");
         handlerDog.handleRequest(new Request("Lion", "Request Lion content"));
+        
+        // まとめて処理する
+        System.out.println("\n--- Batch ---");
+        handlerDog.handleBatch(List.of(
+            new Request("Cat", "Cat 1"),
+            new Request("Dog", "Dog 1"),
+            new Request("Cat", "Cat 2"),
+            new Request("Lion", "Lion 1"),
+            new Request("Cat", "Cat 3")
+        ));
     }
 }
\ No newline at end of file
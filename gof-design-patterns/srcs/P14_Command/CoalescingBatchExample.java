@@ -0,0 +1,118 @@
+package P14_Command;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// コマンドをまとめて実行する時に、結果に影響しない無駄なコマンドを間引く（コアレッシング）。
+//
+// 例えば同じ照明に ON → OFF → ON と続けて来たら、最後の ON だけ実行すれば結果は同じ。
+// どのコマンドが間引けるかは、コマンド自身が CoalescableCommand で宣言する。
+//   - coalescingReceiver() : どのレシーバー宛てか
+//   - coalescingKind()     : どの種類の操作か（同じ種類なら、後のコマンドが前のコマンドを打ち消す）
+// レシーバーと種類が同じコマンドがウィンドウ内に複数あれば、最後の1つだけを、その位置で実行する。
+// CoalescableCommand でないコマンドは、間引かずにそのまま実行する。
+
+// 1. 間引けるコマンドが実装するインターフェース
+interface CoalescableCommand extends Command {
+    Object coalescingReceiver();
+
+    String coalescingKind();
+}
+
+// 2. まとめて実行するクラス
+class CoalescingBatchExecutor {
+    // この件数たまったら、自動で flush() する
+    private final int windowSize;
+    private final List<Command> pending = new ArrayList<>();
+
+    private long submittedCount;
+    private long executedCount;
+
+    public CoalescingBatchExecutor(int windowSize) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("windowSize must be positive: " + windowSize);
+        }
+        this.windowSize = windowSize;
+    }
+
+    public void add(Command command) {
+        pending.add(command);
+        submittedCount++;
+        if (pending.size() >= windowSize) {
+            flush();
+        }
+    }
+
+    // たまっているコマンドを間引いて実行する
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        // 後ろから見て、同じレシーバー・同じ種類のコマンドがすでに出てきていれば、それは打ち消される
+        boolean[] superseded = new boolean[pending.size()];
+        Map<Object, Set<String>> seen = new IdentityHashMap<>();
+        for (int i = pending.size() - 1; i >= 0; i--) {
+            Command command = pending.get(i);
+            if (command instanceof CoalescableCommand) {
+                CoalescableCommand coalescable = (CoalescableCommand) command;
+                Set<String> kinds = seen.computeIfAbsent(coalescable.coalescingReceiver(), receiver -> new HashSet<>());
+                superseded[i] = !kinds.add(coalescable.coalescingKind());
+            }
+        }
+
+        // execute() が例外を投げたら、そこまで（失敗した1件を含む）は外し、残りは次の flush() に回す。
+        // 実行済みのコマンドを、次の flush() でもう一度実行しないように。
+        int done = 0;
+        try {
+            for (; done < pending.size(); done++) {
+                if (!superseded[done]) {
+                    executedCount++;
+                    pending.get(done).execute();
+                }
+            }
+        } finally {
+            pending.subList(0, Math.min(done + 1, pending.size())).clear();
+        }
+    }
+
+    public long getSubmittedCount() {
+        return submittedCount;
+    }
+
+    public long getExecutedCount() {
+        return executedCount;
+    }
+
+    // 間引いたおかげで呼ばずに済んだレシーバー呼び出しの数
+    public long getAvoidedCount() {
+        return submittedCount - pending.size() - executedCount;
+    }
+}
+
+public class CoalescingBatchExample {
+    public static void main(String[] args) {
+        System.out.println("=== コマンドの間引き（コアレッシング）のデモ ===\n");
+        Light livingRoom = new Light();
+        Light kitchen = new Light();
+
+        CoalescingBatchExecutor executor = new CoalescingBatchExecutor(100);
+
+        // 居間はバタバタと切り替わって、最後は ON。台所は OFF のまま。
+        executor.add(new LightOnCommand(livingRoom));
+        executor.add(new LightOffCommand(livingRoom));
+        executor.add(new LightOffCommand(kitchen));
+        executor.add(new LightOnCommand(livingRoom));
+        executor.add(new LightOffCommand(livingRoom));
+        executor.add(new LightOnCommand(livingRoom));
+
+        executor.flush();
+
+        System.out.println("\nsubmitted: " + executor.getSubmittedCount());
+        System.out.println("executed : " + executor.getExecutedCount());
+        System.out.println("avoided  : " + executor.getAvoidedCount());
+    }
+}
@@ -0,0 +1,536 @@
+package P14_Command;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// 実行したコマンドをファイルに記録（ジャーナル）しておき、クラッシュ後に再実行（リプレイ）できるようにする。
+// リクエストをオブジェクトとして扱う、コマンドパターンならではの使い方。
+//
+// 1. コマンドは CommandCodec でバイト列にする。Command 自体はシリアライズの方法を知らなくて良い。
+// 2. バイト列は、追記専用のセグメントファイルに書く。ファイルはメモリマップして、普通のメモリ書き込みで追記する。
+// 3. ディスクへの書き出し（fsync = force()）は重いので、専用スレッドがまとめて行う（グループコミット）。
+//    executeDurably() を同時に呼んだ複数のスレッドは、1回の force() を共有する。
+// 4. replay() はセグメントを先頭から順に読むだけ。
+// 5. compact() は、同じキー（例: 同じ照明）へのコマンドは最後の1件だけ残して書き直す。
+//    書き直したものは一時ファイルに書き、「コミット」のファイルを置いてから古いセグメントと入れ替える。
+//    途中で落ちても、開き直したときに、コミット前なら一時ファイルを捨て、コミット後なら入れ替えを最後までやる。
+//
+// レコードの形式: [長さ int][CRC32 int][中身]。長さ 0 はそのセグメントの終わり。
+// CRC が合わないレコード（書き込み途中でクラッシュしたもの）以降は読まない。
+
+// 1. コマンドとバイト列の変換
+interface CommandCodec {
+    void encode(Command command, ByteBuffer out);
+
+    Command decode(ByteBuffer in);
+
+    // 同じキーのコマンドは、後のものが前のものを上書きする（compact で前のものを消せる）。
+    // 消してはいけないコマンドは null を返す。
+    String compactionKey(Command command);
+}
+
+// 照明コマンド用のコーデック。照明は名前で登録しておく。
+class LightCommandCodec implements CommandCodec {
+    private static final byte ON = 1;
+    private static final byte OFF = 2;
+
+    private final Map<String, Light> lightsByName = new HashMap<>();
+    private final Map<Light, String> namesByLight = new IdentityHashMap<>();
+
+    public void register(String name, Light light) {
+        lightsByName.put(name, light);
+        namesByLight.put(light, name);
+    }
+
+    @Override
+    public void encode(Command command, ByteBuffer out) {
+        if (command instanceof LightOnCommand) {
+            out.put(ON);
+            putName(((LightOnCommand) command).getLight(), out);
+        } else if (command instanceof LightOffCommand) {
+            out.put(OFF);
+            putName(((LightOffCommand) command).getLight(), out);
+        } else {
+            throw new IllegalArgumentException("Unsupported command: " + command.getClass().getName());
+        }
+    }
+
+    @Override
+    public Command decode(ByteBuffer in) {
+        byte kind = in.get();
+        byte[] name = new byte[in.remaining()];
+        in.get(name);
+        Light light = lightsByName.get(new String(name, StandardCharsets.UTF_8));
+        if (light == null) {
+            throw new IllegalStateException("Unknown light: " + new String(name, StandardCharsets.UTF_8));
+        }
+        switch (kind) {
+            case ON:
+                return new LightOnCommand(light);
+            case OFF:
+                return new LightOffCommand(light);
+            default:
+                throw new IllegalStateException("Unknown command kind: " + kind);
+        }
+    }
+
+    @Override
+    public String compactionKey(Command command) {
+        if (command instanceof LightOnCommand) {
+            return namesByLight.get(((LightOnCommand) command).getLight());
+        }
+        if (command instanceof LightOffCommand) {
+            return namesByLight.get(((LightOffCommand) command).getLight());
+        }
+        return null;
+    }
+
+    private void putName(Light light, ByteBuffer out) {
+        String name = namesByLight.get(light);
+        if (name == null) {
+            throw new IllegalArgumentException("Light is not registered");
+        }
+        out.put(name.getBytes(StandardCharsets.UTF_8));
+    }
+}
+
+// 2. ジャーナル本体
+class CommandJournal implements AutoCloseable {
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 64 * 1024;
+    // コンパクションのコミット。中身は、書き直しに含めた最後の古いセグメントの番号。
+    private static final String COMMIT_FILE = "compaction.commit";
+    private static final String COMPACTED_SUFFIX = ".compacting";
+
+    private final Path directory;
+    private final CommandCodec codec;
+    private final int segmentSize;
+    private final long flushIntervalMillis;
+
+    // 以下は this のロックで守る
+    private final ByteBuffer scratch = ByteBuffer.allocate(MAX_RECORD_SIZE);
+    private final CRC32 crc = new CRC32();
+    private int segmentIndex;
+    private MappedByteBuffer segment;
+    private long appendedSequence;
+    private long flushedSequence;
+    private boolean running = true;
+    // close() の最後の force() まで終わった
+    private boolean closed = false;
+    private long flushCount;
+    private int durabilityWaiters;
+
+    private final Thread flusher;
+    // replay() と compact() が同時にセグメントファイルを触らないようにする（append() は止めない）
+    private final Object segmentFilesLock = new Object();
+
+    public CommandJournal(Path directory, CommandCodec codec, int segmentSize, long flushIntervalMillis) throws IOException {
+        this.directory = directory;
+        this.codec = codec;
+        this.segmentSize = segmentSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        Files.createDirectories(directory);
+        if (segmentSize < HEADER_SIZE + 4 + 1) {
+            throw new IllegalArgumentException("segmentSize is too small: " + segmentSize);
+        }
+        recoverCompaction();
+
+        // 既存のジャーナルがあれば、最後のセグメントの続きから書く
+        List<Path> segments = listSegments();
+        if (segments.isEmpty()) {
+            openSegment(0);
+        } else {
+            Path last = segments.get(segments.size() - 1);
+            if (Files.size(last) > segmentSize) {
+                // コンパクションの直後に落ちると、書き直したファイル（セグメントより大きいことがある）が最後に残る。
+                // segmentSize でマップすると途中までしか見えず、その先を上書きしてしまうので、新しいセグメントから書く。
+                openSegment(indexOf(last) + 1);
+            } else {
+                openSegment(indexOf(last));
+                segment.position(endOfRecords(segment));
+            }
+        }
+
+        this.flusher = new Thread(this::flushLoop, "command-journal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    // コマンドを記録する。ディスクに届いたかどうかは待たない。戻り値はシーケンス番号。
+    public synchronized long append(Command command) {
+        if (!running) {
+            throw new IllegalStateException("journal is closed");
+        }
+        scratch.clear();
+        try {
+            codec.encode(command, scratch);
+        } catch (BufferOverflowException e) {
+            throw new IllegalArgumentException("Command is larger than " + MAX_RECORD_SIZE + " bytes: "
+                    + command.getClass().getName(), e);
+        }
+        scratch.flip();
+        int length = scratch.remaining();
+        if (HEADER_SIZE + length + 4 > segmentSize) {
+            throw new IllegalArgumentException("Command (" + length + " bytes) does not fit in a segment of "
+                    + segmentSize + " bytes: " + command.getClass().getName());
+        }
+        crc.reset();
+        crc.update(scratch.array(), 0, length);
+
+        // 終端マーカー（長さ 0）の分も残しておく
+        if (segment.remaining() < HEADER_SIZE + length + 4) {
+            rollSegment();
+        }
+        segment.putInt(length);
+        segment.putInt((int) crc.getValue());
+        segment.put(scratch);
+
+        // 書かれた分が無くて寝ている flusher を起こす
+        if (appendedSequence++ == flushedSequence) {
+            notifyAll();
+        }
+        return appendedSequence;
+    }
+
+    // 指定したシーケンス番号までがディスクに書き出されるまで待つ。
+    // 待っている間に close() されても、close() の最後の force() が終われば戻る。
+    public synchronized void awaitDurable(long sequence) throws InterruptedException {
+        if (flushedSequence >= sequence) {
+            return;
+        }
+        // 待っている人がいることを flusher に知らせて、すぐに force() してもらう
+        durabilityWaiters++;
+        notifyAll();
+        try {
+            while (flushedSequence < sequence) {
+                if (closed) {
+                    // close() の force() が失敗した
+                    throw new IllegalStateException("journal is closed");
+                }
+                wait();
+            }
+        } finally {
+            durabilityWaiters--;
+        }
+    }
+
+    // 記録 → ディスクに届くのを待つ → 実行。クラッシュしても、実行したコマンドは必ずリプレイできる。
+    public void executeDurably(Command command) throws InterruptedException {
+        long sequence = append(command);
+        awaitDurable(sequence);
+        command.execute();
+    }
+
+    // 記録されているコマンドを、古い順に全部 action に渡す
+    public int replay(Consumer<Command> action) throws IOException {
+        synchronized (segmentFilesLock) {
+            int count = 0;
+            for (Path path : listSegments()) {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    ByteBuffer record;
+                    while ((record = nextRecord(buffer)) != null) {
+                        action.accept(codec.decode(record));
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+    }
+
+    // 記録されているコマンドを、古い順に全部実行する
+    public int replay() throws IOException {
+        return replay(Command::execute);
+    }
+
+    // 同じキーのコマンドは最後の1件だけ残して、新しいセグメントに書き直す。
+    // 一時ファイルに書いて force() → コミットのファイルを置く → 古いセグメントを消す → 一時ファイルをセグメントにする、の順。
+    // どこで落ちても、開き直したときに recoverCompaction() が「書き直す前」か「書き直した後」のどちらかにそろえるので、
+    // キーの無いコマンドが2回リプレイされることはない。
+    public int compact() throws IOException {
+        synchronized (segmentFilesLock) {
+            synchronized (this) {
+                return compactSegments();
+            }
+        }
+    }
+
+    private int compactSegments() throws IOException {
+        List<Path> oldSegments = listSegments();
+        segment.force();
+
+        // キーごとに最後のレコードを、最後に現れた順で残す
+        Map<Object, byte[]> latest = new LinkedHashMap<>();
+        int keyless = 0;
+        for (Path path : oldSegments) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                ByteBuffer record;
+                while ((record = nextRecord(buffer)) != null) {
+                    byte[] bytes = new byte[record.remaining()];
+                    record.get(bytes);
+                    String key = codec.compactionKey(codec.decode(ByteBuffer.wrap(bytes)));
+                    Object mapKey = key != null ? key : Integer.valueOf(keyless++);
+                    latest.remove(mapKey);
+                    latest.put(mapKey, bytes);
+                }
+            }
+        }
+
+        // 1. 書き直したものを一時ファイルに書く（大きさはセグメントに合わせなくて良い）
+        int lastOldIndex = segmentIndex;
+        int compactedIndex = lastOldIndex + 1;
+        Path compacted = segmentPath(compactedIndex);
+        Path temporary = compacted.resolveSibling(compacted.getFileName() + COMPACTED_SUFFIX);
+        try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            for (byte[] bytes : latest.values()) {
+                crc.reset();
+                crc.update(bytes, 0, bytes.length);
+                header.clear();
+                header.putInt(bytes.length).putInt((int) crc.getValue()).flip();
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                ByteBuffer body = ByteBuffer.wrap(bytes);
+                while (body.hasRemaining()) {
+                    channel.write(body);
+                }
+            }
+            channel.force(true);
+        }
+
+        // 2. コミット。ここから先で落ちたら、開き直したときに残りをやる。
+        Path commitTemporary = directory.resolve(COMMIT_FILE + ".tmp");
+        Files.write(commitTemporary, Integer.toString(lastOldIndex).getBytes(StandardCharsets.UTF_8));
+        try (FileChannel channel = FileChannel.open(commitTemporary, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(commitTemporary, directory.resolve(COMMIT_FILE), StandardCopyOption.ATOMIC_MOVE);
+        // 名前の付け替えはディレクトリの中身なので、ディレクトリも force() しないと、古いセグメントを消した後に落ちたとき
+        // コミットの方が消えていることがある
+        forceDirectory();
+
+        // 3. 入れ替えて、追記は新しい空のセグメントから続ける
+        finishCompaction(lastOldIndex);
+        openSegment(compactedIndex + 1);
+        return latest.size();
+    }
+
+    // 前回のコンパクションが途中で終わっていたら、コミット前なら捨て、コミット後なら最後までやる
+    private void recoverCompaction() throws IOException {
+        Path commit = directory.resolve(COMMIT_FILE);
+        if (Files.exists(commit)) {
+            int lastOldIndex = Integer.parseInt(new String(Files.readAllBytes(commit), StandardCharsets.UTF_8).trim());
+            finishCompaction(lastOldIndex);
+            return;
+        }
+        Files.deleteIfExists(directory.resolve(COMMIT_FILE + ".tmp"));
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : files.filter(path -> path.toString().endsWith(COMPACTED_SUFFIX)).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    // コミット後の後始末。何回やっても同じ結果になる。
+    private void finishCompaction(int lastOldIndex) throws IOException {
+        for (Path path : listSegments()) {
+            if (indexOf(path) <= lastOldIndex) {
+                Files.delete(path);
+            }
+        }
+        Path compacted = segmentPath(lastOldIndex + 1);
+        Path temporary = compacted.resolveSibling(compacted.getFileName() + COMPACTED_SUFFIX);
+        if (Files.exists(temporary)) {
+            Files.move(temporary, compacted, StandardCopyOption.ATOMIC_MOVE);
+            // コミットを消す前に、付け替えた名前をディスクに届ける
+            forceDirectory();
+        }
+        Files.delete(directory.resolve(COMMIT_FILE));
+    }
+
+    private void forceDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException e) {
+            // Windows ではディレクトリを開けない（名前の付け替えは、そのまま書き込まれる）
+        }
+    }
+
+    // グループコミットで force() した回数
+    public synchronized long getFlushCount() {
+        return flushCount;
+    }
+
+    // 追記を止めて、最後に force() する。
+    // 割り込まれても force() までは済ませ、割り込みのフラグを立て直して戻る。
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            notifyAll();
+        }
+        boolean interrupted = false;
+        while (flusher.isAlive()) {
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        try {
+            synchronized (this) {
+                try {
+                    segment.force();
+                    flushedSequence = appendedSequence;
+                } finally {
+                    // force() が済んでから、awaitDurable() で待っている人を起こす
+                    closed = true;
+                    notifyAll();
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // グループコミット。
+    // 誰かが awaitDurable() で待っていればすぐに、そうでなければ flushIntervalMillis ごとに force() する。
+    // force() している間に追記された分は、次の force() にまとめる。
+    private void flushLoop() {
+        try {
+            long lastFlushNanos = System.nanoTime();
+            while (true) {
+                long target;
+                MappedByteBuffer current;
+                synchronized (this) {
+                    long deadline = lastFlushNanos + flushIntervalMillis * 1_000_000;
+                    while (running) {
+                        boolean pending = appendedSequence != flushedSequence;
+                        long now = System.nanoTime();
+                        if (pending && (durabilityWaiters > 0 || now >= deadline)) {
+                            break;
+                        }
+                        // 書かれた分が無ければ、append() に起こされるまで待つ
+                        wait(pending ? Math.max(1, (deadline - now) / 1_000_000) : 0);
+                    }
+                    if (!running) {
+                        return;
+                    }
+                    target = appendedSequence;
+                    current = segment;
+                }
+                // ロックの外で force() するので、その間も append() は進められる
+                current.force();
+                lastFlushNanos = System.nanoTime();
+                synchronized (this) {
+                    flushedSequence = Math.max(flushedSequence, target);
+                    flushCount++;
+                    notifyAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void rollSegment() {
+        segment.force();
+        try {
+            openSegment(segmentIndex + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void openSegment(int index) throws IOException {
+        Path path = segmentPath(index);
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // マップした後はチャネルを閉じても、バッファは使い続けられる
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        segmentIndex = index;
+    }
+
+    private Path segmentPath(int index) {
+        return directory.resolve(String.format("journal-%08d.log", index));
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                .filter(path -> path.getFileName().toString().matches("journal-\\d{8}\\.log"))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+    }
+
+    private static int indexOf(Path segmentPath) {
+        String name = segmentPath.getFileName().toString();
+        return Integer.parseInt(name.substring("journal-".length(), name.length() - ".log".length()));
+    }
+
+    // 有効なレコードの直後の位置
+    private static int endOfRecords(ByteBuffer buffer) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(0);
+        int end = 0;
+        while (nextRecord(view) != null) {
+            end = view.position();
+        }
+        return end;
+    }
+
+    // 次のレコードの中身。終端、または壊れたレコードなら null。
+    private static ByteBuffer nextRecord(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_SIZE) {
+            return null;
+        }
+        int start = buffer.position();
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (length <= 0 || length > buffer.remaining()) {
+            buffer.position(start);
+            return null;
+        }
+        ByteBuffer record = buffer.slice();
+        record.limit(length);
+        CRC32 crc = new CRC32();
+        crc.update(record.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            buffer.position(start);
+            return null;
+        }
+        buffer.position(buffer.position() + length);
+        return record;
+    }
+}
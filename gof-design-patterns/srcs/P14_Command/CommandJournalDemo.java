@@ -0,0 +1,176 @@
+package P14_Command;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+// CommandJournal のデモと、ジャーナルを付けた時のスループットの比較。
+//
+// 実行例:
+//   javac -encoding UTF-8 -d out P14_Command/*.java
+//   java -cp out P14_Command.CommandJournalDemo
+//
+// 手元（1コア、JDK 17、overlayfs 上の一時ディレクトリ、flushInterval 10ms）での結果の一例:
+//   execute only                       : 約 290 M commands/s
+//   append + execute (force は非同期)  : 約 12.7 M commands/s   （force 33 回）
+//   executeDurably, 1 thread           : 約 14,000 commands/s   （1件ごとに force を待つ）
+//   executeDurably, 16 threads         : 約 69,000 commands/s   （force 1回あたり約4.5件）
+// force() の速さはディスクとファイルシステム次第で、何桁も変わる。
+// 「実行したら必ずリプレイできる」が要らないなら、append() だけにして force は後追いにするのが安い。
+
+// Counter 用のコーデック（計測用。println しないレシーバー）
+class CounterCommandCodec implements CommandCodec {
+    private static final byte INCREMENT = 1;
+    private static final byte RESET = 2;
+
+    private final Counter counter;
+
+    public CounterCommandCodec(Counter counter) {
+        this.counter = counter;
+    }
+
+    @Override
+    public void encode(Command command, ByteBuffer out) {
+        out.put(command instanceof ResetCommand ? RESET : INCREMENT);
+    }
+
+    @Override
+    public Command decode(ByteBuffer in) {
+        byte kind = in.get();
+        switch (kind) {
+            case INCREMENT:
+                return new IncrementCommand(counter);
+            case RESET:
+                return new ResetCommand(counter);
+            default:
+                throw new IllegalStateException("Unknown command kind: " + kind);
+        }
+    }
+
+    @Override
+    public String compactionKey(Command command) {
+        // 加算は積み重ねなので、消してはいけない
+        return null;
+    }
+}
+
+public class CommandJournalDemo {
+    private static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("command-journal");
+        try {
+            demo(directory.resolve("lights"));
+            benchmark(directory.resolve("counter"));
+        } finally {
+            deleteRecursively(directory);
+        }
+    }
+
+    private static void demo(Path directory) throws Exception {
+        System.out.println("=== コマンドジャーナルのデモ ===\n");
+        Light livingRoom = new Light();
+        Light kitchen = new Light();
+        LightCommandCodec codec = new LightCommandCodec();
+        codec.register("livingRoom", livingRoom);
+        codec.register("kitchen", kitchen);
+
+        try (CommandJournal journal = new CommandJournal(directory, codec, SEGMENT_SIZE, 10)) {
+            System.out.println("--- 記録しながら実行 ---");
+            journal.executeDurably(new LightOnCommand(livingRoom));
+            journal.executeDurably(new LightOnCommand(kitchen));
+            journal.executeDurably(new LightOffCommand(livingRoom));
+            journal.executeDurably(new LightOnCommand(livingRoom));
+        }
+
+        // クラッシュして再起動した、というつもりで開き直す
+        try (CommandJournal journal = new CommandJournal(directory, codec, SEGMENT_SIZE, 10)) {
+            System.out.println("\n--- リプレイ ---");
+            int replayed = journal.replay();
+            System.out.println("replayed: " + replayed);
+
+            System.out.println("\n--- コンパクション後のリプレイ（照明ごとに最後の状態だけ） ---");
+            int kept = journal.compact();
+            System.out.println("kept: " + kept);
+            journal.replay();
+        }
+    }
+
+    private static void benchmark(Path directory) throws Exception {
+        System.out.println("\n=== ジャーナルのコスト ===");
+        Counter counter = new Counter();
+        Command increment = new IncrementCommand(counter);
+        CounterCommandCodec codec = new CounterCommandCodec(counter);
+
+        int count = 5_000_000;
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            increment.execute();
+        }
+        report("execute only", count, System.nanoTime() - start, -1);
+
+        try (CommandJournal journal = new CommandJournal(directory.resolve("async"), codec, SEGMENT_SIZE, 10)) {
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                journal.append(increment);
+                increment.execute();
+            }
+            report("append + execute (force は非同期)", count, System.nanoTime() - start, journal.getFlushCount());
+        }
+
+        try (CommandJournal journal = new CommandJournal(directory.resolve("sync1"), codec, SEGMENT_SIZE, 10)) {
+            int durableCount = 2_000;
+            start = System.nanoTime();
+            for (int i = 0; i < durableCount; i++) {
+                journal.executeDurably(increment);
+            }
+            report("executeDurably, 1 thread", durableCount, System.nanoTime() - start, journal.getFlushCount());
+        }
+
+        try (CommandJournal journal = new CommandJournal(directory.resolve("sync16"), codec, SEGMENT_SIZE, 10)) {
+            int threads = 16;
+            int perThread = 2_000;
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                // Counter はスレッドセーフではないので、スレッドごとに別の Counter を数える（記録の中身は同じ）
+                Command own = new IncrementCommand(new Counter());
+                workers.add(new Thread(() -> {
+                    try {
+                        for (int i = 0; i < perThread; i++) {
+                            journal.executeDurably(own);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }));
+            }
+            start = System.nanoTime();
+            for (Thread worker : workers) {
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            report("executeDurably, " + threads + " threads", threads * perThread, System.nanoTime() - start,
+                    journal.getFlushCount());
+        }
+    }
+
+    private static void report(String label, int count, long nanos, long flushes) {
+        String flushInfo = flushes < 0 ? "" : String.format("  (force %d 回)", flushes);
+        System.out.printf("%-36s : %,14.0f commands/s%s%n", label, count / (nanos / 1e9), flushInfo);
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -30,30 +30,71 @@ class Light {
 }
 
 // 3. ConcreteCommandクラス
-class LightOnCommand implements Command {
+class LightOnCommand implements CoalescableCommand, UndoableCommand {
     private Light light;
     
     public LightOnCommand(Light light) {
         this.light = light;
     }
     
+    // ジャーナルなど、どのレシーバー宛てのコマンドかを知りたい側のために公開
+    Light getLight() {
+        return light;
+    }
+    
     @Override
     public void execute() {
         light.on();
     }
+    
+    @Override
+    public void undo() {
+        light.off();
+    }
+    
+    // 点灯・消灯は、同じ照明に対しては最後の1つだけが効く
+    @Override
+    public Object coalescingReceiver() {
+        return light;
+    }
+    
+    @Override
+    public String coalescingKind() {
+        return "power";
+    }
 }
 
-class LightOffCommand implements Command {
+class LightOffCommand implements CoalescableCommand, UndoableCommand {
     private Light light;
     
     public LightOffCommand(Light light) {
         this.light = light;
     }
     
+    // 宛先のレシーバー
+    Light getLight() {
+        return light;
+    }
+    
     @Override
     public void execute() {
         light.off();
     }
+    
+    @Override
+    public void undo() {
+        light.on();
+    }
+    
+    @Override
+    public Object coalescingReceiver() {
+        return light;
+    }
+    
+    @Override
+    public String coalescingKind() {
+        return "power";
+    }
 }
 
 // 4. Invokerクラス（コマンドを実行するクラス）
@@ -0,0 +1,202 @@
+package P14_Command;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// 遅延のヒストグラム（RingBufferInvoker のほか、P17_Mediator の DispatchMetrics からも使う）
+// 値（ナノ秒）を2のべき乗ごとに16分割したバケットで数える。誤差は最大で約6%。記録時にオブジェクトを作らない。
+//
+// バケットの数え方（Buckets）は2通り。計算はどちらも同じこのクラスのものを使う。
+//   - new LatencyHistogram()         : long[]。1つのスレッドからだけ記録する（RingBufferInvoker のコンシューマー）
+//   - LatencyHistogram.concurrent()  : AtomicLongArray。複数のスレッドから記録して良い
+// snapshot() は、その時点の値を写した1スレッド用のヒストグラムを返す。
+public class LatencyHistogram {
+    private static final int SUB_BUCKETS = 16;
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int BUCKET_COUNT = SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    // バケットの数え方
+    interface Buckets {
+        void increment(int index);
+
+        long get(int index);
+
+        // 読んで 0 に戻す
+        long getAndReset(int index);
+
+        void updateMax(long value);
+
+        long getMax();
+
+        long getAndResetMax();
+    }
+
+    private final Buckets buckets;
+
+    public LatencyHistogram() {
+        this(new PlainBuckets());
+    }
+
+    private LatencyHistogram(Buckets buckets) {
+        this.buckets = buckets;
+    }
+
+    public static LatencyHistogram concurrent() {
+        return new LatencyHistogram(new AtomicBuckets());
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.increment(indexOf(value));
+        buckets.updateMax(value);
+    }
+
+    public long getTotalCount() {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += buckets.get(i);
+        }
+        return total;
+    }
+
+    public long getMaxValue() {
+        return buckets.getMax();
+    }
+
+    // percentile は 0〜100。そのバケットの下限値を返す。
+    // 記録中に呼ぶと、数えている途中の値も混ざる。揃った値が欲しいときは snapshot() に対して呼ぶ。
+    public long getValueAtPercentile(double percentile) {
+        long totalCount = getTotalCount();
+        long maxValue = buckets.getMax();
+        if (totalCount == 0) {
+            return 0;
+        }
+        long threshold = (long) Math.ceil(totalCount * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = buckets.get(i);
+            seen += count;
+            if (seen >= threshold && count > 0) {
+                return Math.min(lowestValueOf(i), maxValue);
+            }
+        }
+        return maxValue;
+    }
+
+    // 今の値の写し。reset なら、写すと同時に 0 に戻す（定期的に集める用）。
+    public LatencyHistogram snapshot(boolean reset) {
+        PlainBuckets copy = new PlainBuckets();
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy.counts[i] = reset ? buckets.getAndReset(i) : buckets.get(i);
+        }
+        copy.max = reset ? buckets.getAndResetMax() : buckets.getMax();
+        return new LatencyHistogram(copy);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count %,d, p50 %,d ns, p99 %,d ns, max %,d ns",
+                getTotalCount(), getValueAtPercentile(50), getValueAtPercentile(99), getMaxValue());
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (msb - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (msb - SUB_BUCKET_BITS) * SUB_BUCKETS + sub;
+    }
+
+    private static long lowestValueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int msb = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        int sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << (msb - SUB_BUCKET_BITS);
+    }
+
+    // 1スレッド用
+    private static final class PlainBuckets implements Buckets {
+        final long[] counts = new long[BUCKET_COUNT];
+        long max;
+
+        @Override
+        public void increment(int index) {
+            counts[index]++;
+        }
+
+        @Override
+        public long get(int index) {
+            return counts[index];
+        }
+
+        @Override
+        public long getAndReset(int index) {
+            long count = counts[index];
+            counts[index] = 0;
+            return count;
+        }
+
+        @Override
+        public void updateMax(long value) {
+            if (value > max) {
+                max = value;
+            }
+        }
+
+        @Override
+        public long getMax() {
+            return max;
+        }
+
+        @Override
+        public long getAndResetMax() {
+            long value = max;
+            max = 0;
+            return value;
+        }
+    }
+
+    // 複数スレッド用
+    private static final class AtomicBuckets implements Buckets {
+        final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+        final AtomicLong max = new AtomicLong();
+
+        @Override
+        public void increment(int index) {
+            counts.incrementAndGet(index);
+        }
+
+        @Override
+        public long get(int index) {
+            return counts.get(index);
+        }
+
+        @Override
+        public long getAndReset(int index) {
+            return counts.getAndSet(index, 0);
+        }
+
+        @Override
+        public void updateMax(long value) {
+            long current = max.get();
+            while (value > current && !max.compareAndSet(current, value)) {
+                current = max.get();
+            }
+        }
+
+        @Override
+        public long getMax() {
+            return max.get();
+        }
+
+        @Override
+        public long getAndResetMax() {
+            return max.getAndSet(0);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package P14_Command;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+// RemoteControl は Command を1つ持って、pressButton() でその場で実行するだけ。
+// こちらは、たくさんのスレッドから Command を受け付けて、別スレッドで順番に実行するインボーカー。
+//
+// 1. あらかじめ確保した配列（リングバッファ）に Command を書き込む。キューのノードを毎回 new しない。
+// 2. 書き込む側（プロデューサー）は複数。AtomicLong で書き込み位置（シーケンス番号）を取り合う。
+// 3. 実行する側（コンシューマー）は1つ。書き込み済みの印（published）を見て、順番に execute() する。
+// 4. 待ち方（WaitStrategy）は選べる。スピン・yield・スリープ。
+//
+// いわゆる Disruptor の「複数プロデューサー・単一コンシューマー」の形を、最小限で書いたもの。
+
+// 1. 待ち方のインターフェース
+// attempt は何回連続で待っているか。待ち方を段階的に変えるのに使う。
+interface WaitStrategy {
+    void idle(int attempt);
+}
+
+// CPUを占有してでも、最小の遅延で反応する。コア数に余裕がある時だけ使う。
+class BusySpinWaitStrategy implements WaitStrategy {
+    @Override
+    public void idle(int attempt) {
+        Thread.onSpinWait();
+    }
+}
+
+// しばらくスピンして、その後は他のスレッドに譲る
+class YieldingWaitStrategy implements WaitStrategy {
+    @Override
+    public void idle(int attempt) {
+        if (attempt < 100) {
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
+        }
+    }
+}
+
+// スピン → yield → 短いスリープ。暇な時にCPUをほとんど使わない。
+class SleepingWaitStrategy implements WaitStrategy {
+    private final long sleepNanos;
+
+    public SleepingWaitStrategy(long sleepNanos) {
+        this.sleepNanos = sleepNanos;
+    }
+
+    @Override
+    public void idle(int attempt) {
+        if (attempt < 100) {
+            Thread.onSpinWait();
+        } else if (attempt < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(sleepNanos);
+        }
+    }
+}
+
+// 2. 遅延のヒストグラムは LatencyHistogram.java（コンシューマースレッドからだけ記録するので、1スレッド用を使う）
+
+// 3. リングバッファ式のインボーカー
+class RingBufferInvoker implements AutoCloseable {
+    private final int capacity;
+    private final int mask;
+
+    // スロット。起動時に確保して使い回す。
+    private final Command[] commands;
+    private final long[] enqueueNanos;
+    // スロットに書き込み済みのシーケンス番号。まだなら -1。
+    private final AtomicLongArray published;
+
+    // 次にプロデューサーが取るシーケンス番号
+    private final AtomicLong claimSequence = new AtomicLong();
+    // コンシューマーが実行し終えたシーケンス番号 + 1。プロデューサーはこれを見て上書きを避ける。
+    private volatile long consumedSequence;
+
+    private final WaitStrategy producerWait;
+    private final WaitStrategy consumerWait;
+    private final Thread consumer;
+    private volatile boolean running = true;
+
+    // コマンドの種類（クラス）ごとの遅延。コンシューマースレッドだけが触る。
+    private final Map<Class<?>, LatencyHistogram> latencies = new HashMap<>();
+    private long failures;
+
+    public RingBufferInvoker(int capacity, WaitStrategy producerWait, WaitStrategy consumerWait) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.commands = new Command[capacity];
+        this.enqueueNanos = new long[capacity];
+        this.published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            published.set(i, -1);
+        }
+        this.producerWait = producerWait;
+        this.consumerWait = consumerWait;
+
+        this.consumer = new Thread(this::consumeLoop, "command-invoker");
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    // Command を受け付ける。どのスレッドから呼んでも良い。
+    // バッファが一杯の時は、空くまで producerWait で待つ。
+    // close() と同時に呼ばれたら、実行されるか、IllegalStateException になるかのどちらか（黙って消えることはない）。
+    public void submit(Command command) {
+        if (!running) {
+            throw new IllegalStateException("invoker is closed");
+        }
+        long sequence = claimSequence.getAndIncrement();
+        int attempt = 0;
+        while (sequence - capacity >= consumedSequence) {
+            if (!running && !consumer.isAlive()) {
+                // 空くのを待っている間に止まった。もう誰も空けてくれない
+                throw new IllegalStateException("invoker is closed");
+            }
+            producerWait.idle(attempt++);
+        }
+        int index = (int) sequence & mask;
+        commands[index] = command;
+        enqueueNanos[index] = System.nanoTime();
+        // ここで公開。コンシューマーは published を見てから commands を読む。
+        published.setRelease(index, sequence);
+        if (!running) {
+            // 最初に見た後で close() された。コンシューマーが番号を取る前に止まっていたら、このコマンドは実行されない。
+            // 閉じるときだけの道なので、コンシューマーが止まるのを待って確かめる。
+            awaitConsumer();
+            if (consumedSequence <= sequence) {
+                throw new IllegalStateException("invoker is closed");
+            }
+        }
+    }
+
+    private void awaitConsumer() {
+        boolean interrupted = false;
+        while (consumer.isAlive()) {
+            try {
+                consumer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void consumeLoop() {
+        long next = 0;
+        int attempt = 0;
+        while (true) {
+            int index = (int) next & mask;
+            if (published.getAcquire(index) == next) {
+                // 書き込み済みの分をまとめて実行して、最後に1回だけ consumedSequence を進める
+                do {
+                    Command command = commands[index];
+                    long enqueuedAt = enqueueNanos[index];
+                    commands[index] = null;
+                    try {
+                        command.execute();
+                    } catch (Throwable e) {
+                        // Error でもコンシューマーが死ぬと、バッファが埋まった後の submit() が永遠に待つので、数えて続ける
+                        failures++;
+                    }
+                    latencies.computeIfAbsent(command.getClass(), type -> new LatencyHistogram())
+                            .record(System.nanoTime() - enqueuedAt);
+                    next++;
+                    index = (int) next & mask;
+                } while (published.getAcquire(index) == next);
+                consumedSequence = next;
+                attempt = 0;
+            } else if (!running && next == claimSequence.get()) {
+                return;
+            } else {
+                consumerWait.idle(attempt++);
+            }
+        }
+    }
+
+    // 受け付け済みのコマンドを全部実行してから止める。
+    // 同時に submit() しているスレッドの分は、実行されるか、そのスレッドの submit() が例外になる。
+    @Override
+    public void close() {
+        running = false;
+        try {
+            consumer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // close() の後に呼ぶこと
+    public Map<Class<?>, LatencyHistogram> getLatencies() {
+        return latencies;
+    }
+
+    // execute() が例外（Error も含む）を投げた回数。close() の後に呼ぶこと
+    public long getFailures() {
+        return failures;
+    }
+}
@@ -0,0 +1,264 @@
+package P14_Command;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// 「30分後に照明を消す」「毎朝7時に照明をつける」のような、遅延・定期実行のコマンドを大量に扱うスケジューラー。
+//
+// ScheduledThreadPoolExecutor は中身がヒープ（優先度付きキュー）なので、追加・削除が O(log n)。
+// こちらは時計の文字盤（タイマーホイール）を使う。
+//
+// 1. 文字盤は 256 マス。1マス = 1 tick（例: 1ms）。期限のマスに、双方向リストでつなぐだけなので追加は O(1)。
+// 2. 256 tick より先の期限は、1マス = 256 tick の上位の文字盤に入れる。これを4段重ねる（階層型）。
+// 3. 下の文字盤が一周するたびに、上の文字盤の該当マスの中身を下に降ろす（カスケード）。
+// 4. キャンセルは、リストから自分を外すだけなので O(1)。
+// 5. 期限が来たコマンドは、batchSize 件ずつまとめてワーカープールに渡す。
+
+// 1. スケジュール済みのタイマー（キャンセル用のハンドルも兼ねる）
+class ScheduledTimer {
+    final Command command;
+    final long periodTicks;
+    long deadlineTick;
+
+    // マスの中の双方向リスト
+    ScheduledTimer prev;
+    ScheduledTimer next;
+    boolean linked;
+    volatile boolean cancelled;
+
+    private final TimerWheelScheduler owner;
+
+    ScheduledTimer(TimerWheelScheduler owner, Command command, long deadlineTick, long periodTicks) {
+        this.owner = owner;
+        this.command = command;
+        this.deadlineTick = deadlineTick;
+        this.periodTicks = periodTicks;
+    }
+
+    // マスの番兵用
+    ScheduledTimer() {
+        this(null, null, 0, 0);
+        this.prev = this;
+        this.next = this;
+    }
+
+    // まだ実行されていなければ取り消して true を返す。定期実行なら、以降の実行を止める。
+    public boolean cancel() {
+        return owner.cancel(this);
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
+
+// 2. タイマーホイール本体
+class TimerWheelScheduler implements AutoCloseable {
+    private static final int WHEEL_BITS = 8;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+    // 一番上の文字盤でも届かない期限は、ここまでで止めて置いておき、降りてきたら入れ直す
+    private static final long MAX_DELTA = (1L << (WHEEL_BITS * LEVELS)) - 1;
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final ExecutorService workers;
+    private final int batchSize;
+
+    // 以下は this のロックで守る
+    private final ScheduledTimer[][] wheels = new ScheduledTimer[LEVELS][WHEEL_SIZE];
+    private long currentTick;
+    private int pendingCount;
+
+    private final Thread ticker;
+    private volatile boolean running = true;
+    // ワーカープールに断られて、実行できなかったコマンドの数
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    public TimerWheelScheduler(long tick, TimeUnit unit, ExecutorService workers, int batchSize) {
+        this.tickNanos = unit.toNanos(tick);
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("tick must be positive");
+        }
+        this.workers = workers;
+        this.batchSize = batchSize;
+        for (ScheduledTimer[] wheel : wheels) {
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                wheel[i] = new ScheduledTimer();
+            }
+        }
+        this.startNanos = System.nanoTime();
+        this.ticker = new Thread(this::tickLoop, "timer-wheel");
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    public ScheduledTimer schedule(Command command, long delay, TimeUnit unit) {
+        return add(command, toTicks(delay, unit), 0);
+    }
+
+    // 固定レートで繰り返す。前回の実行が終わったかどうかは待たない。
+    public ScheduledTimer scheduleAtFixedRate(Command command, long initialDelay, long period, TimeUnit unit) {
+        long periodTicks = toTicks(period, unit);
+        return add(command, toTicks(initialDelay, unit), periodTicks);
+    }
+
+    public synchronized int getPendingCount() {
+        return pendingCount;
+    }
+
+    // ワーカープールが execute() を断った（止まっている、キューが一杯など）ために、実行されなかったコマンドの数。
+    // 断られても tick は止めないので、後のタイマーはそのまま発火する。
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    private synchronized ScheduledTimer add(Command command, long delayTicks, long periodTicks) {
+        if (!running) {
+            throw new IllegalStateException("scheduler is closed");
+        }
+        ScheduledTimer timer = new ScheduledTimer(this, command, currentTick + delayTicks, periodTicks);
+        place(timer);
+        pendingCount++;
+        return timer;
+    }
+
+    synchronized boolean cancel(ScheduledTimer timer) {
+        boolean wasPending = timer.linked && !timer.cancelled;
+        timer.cancelled = true;
+        if (timer.linked) {
+            unlink(timer);
+            pendingCount--;
+        }
+        return wasPending;
+    }
+
+    // 期限までの距離で、どの段のどのマスに入れるかを決める
+    private void place(ScheduledTimer timer) {
+        long delta = Math.max(0, Math.min(timer.deadlineTick - currentTick, MAX_DELTA));
+        long target = currentTick + delta;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (WHEEL_BITS * (level + 1)))) {
+            level++;
+        }
+        int index = (int) (target >>> (WHEEL_BITS * level)) & WHEEL_MASK;
+        link(wheels[level][index], timer);
+    }
+
+    private static void link(ScheduledTimer head, ScheduledTimer timer) {
+        timer.prev = head.prev;
+        timer.next = head;
+        head.prev.next = timer;
+        head.prev = timer;
+        timer.linked = true;
+    }
+
+    private static void unlink(ScheduledTimer timer) {
+        timer.prev.next = timer.next;
+        timer.next.prev = timer.prev;
+        timer.prev = null;
+        timer.next = null;
+        timer.linked = false;
+    }
+
+    // 1 tick 進めて、期限が来たタイマーを due に集める
+    private synchronized void advance(List<ScheduledTimer> due) {
+        currentTick++;
+
+        // 下の段が一周した段を、上から順に降ろす
+        int topLevel = 0;
+        while (topLevel < LEVELS - 1
+                && (currentTick & ((1L << (WHEEL_BITS * (topLevel + 1))) - 1)) == 0) {
+            topLevel++;
+        }
+        for (int level = topLevel; level >= 1; level--) {
+            ScheduledTimer head = wheels[level][(int) (currentTick >>> (WHEEL_BITS * level)) & WHEEL_MASK];
+            while (head.next != head) {
+                ScheduledTimer timer = head.next;
+                unlink(timer);
+                place(timer);
+            }
+        }
+
+        ScheduledTimer head = wheels[0][(int) currentTick & WHEEL_MASK];
+        while (head.next != head) {
+            ScheduledTimer timer = head.next;
+            unlink(timer);
+            due.add(timer);
+            if (timer.periodTicks > 0) {
+                timer.deadlineTick += timer.periodTicks;
+                place(timer);
+            } else {
+                pendingCount--;
+            }
+        }
+    }
+
+    private void tickLoop() {
+        List<ScheduledTimer> due = new ArrayList<>();
+        long tick = 0;
+        while (running) {
+            long now = System.nanoTime();
+            long targetTick = (now - startNanos) / tickNanos;
+            // 遅れていたら、その分まとめて進める
+            while (tick < targetTick) {
+                advance(due);
+                tick++;
+                if (due.size() >= batchSize) {
+                    dispatch(due);
+                }
+            }
+            dispatch(due);
+            LockSupport.parkNanos(startNanos + (tick + 1) * tickNanos - System.nanoTime());
+        }
+    }
+
+    // batchSize 件ずつ、1つのタスクにしてワーカーに渡す
+    private void dispatch(List<ScheduledTimer> due) {
+        for (int from = 0; from < due.size(); from += batchSize) {
+            int to = Math.min(from + batchSize, due.size());
+            Command[] batch = new Command[to - from];
+            for (int i = from; i < to; i++) {
+                batch[i - from] = due.get(i).command;
+            }
+            try {
+                workers.execute(() -> {
+                    for (Command command : batch) {
+                        try {
+                            command.execute();
+                        } catch (RuntimeException e) {
+                            // 1つのコマンドの失敗で、同じバッチの残りを止めない
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // ここで ticker が死ぬと、以降のタイマーが全部黙って止まるので、数えるだけにして続ける
+                rejectedCount.addAndGet(batch.length);
+            }
+        }
+        due.clear();
+    }
+
+    private long toTicks(long delay, TimeUnit unit) {
+        long nanos = unit.toNanos(delay);
+        return Math.max(1, (nanos + tickNanos - 1) / tickNanos);
+    }
+
+    // ワーカープールは呼び出し側のものなので、ここでは止めない
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(ticker);
+        try {
+            ticker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
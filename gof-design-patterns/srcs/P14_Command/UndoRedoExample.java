@@ -0,0 +1,125 @@
+package P14_Command;
+
+import java.util.Arrays;
+
+// RemoteControl に Undo/Redo を付ける。コマンドパターンの定番の使い方。
+//
+// よくある実装は、実行したコマンドを ArrayList<Command> の履歴に積んでいくもの。
+// ただ、長時間使い続けると履歴が際限なく伸びて、コマンドオブジェクトも全部残ってしまう。
+//
+// ここでは、
+// 1. コマンドは最初に register() して、番号（int）を振っておく。
+// 2. 履歴は、その番号だけを固定長の int 配列（リングバッファ）に記録する。
+// 3. 容量を超えたら、一番古い履歴から上書きする（それより前には Undo できない）。
+// なので、ボタンを押し続けても、履歴のために new されるものは何もない。
+
+// 1. 元に戻せるコマンド
+interface UndoableCommand extends Command {
+    void undo();
+}
+
+// 2. Undo/Redo できるリモコン
+class UndoableRemoteControl {
+    private UndoableCommand[] commands = new UndoableCommand[8];
+    private int commandCount;
+
+    // 履歴。シーケンス番号 s の操作は history[s % capacity] にある。
+    private final int[] history;
+    // oldest <= cursor <= newest
+    //   [oldest, cursor) : Undo できる操作
+    //   [cursor, newest) : Redo できる操作
+    private long oldest;
+    private long cursor;
+    private long newest;
+
+    public UndoableRemoteControl(int historyCapacity) {
+        if (historyCapacity <= 0) {
+            throw new IllegalArgumentException("historyCapacity must be positive: " + historyCapacity);
+        }
+        this.history = new int[historyCapacity];
+    }
+
+    // コマンドを登録して、ボタン番号を返す
+    public int register(UndoableCommand command) {
+        if (commandCount == commands.length) {
+            commands = Arrays.copyOf(commands, commandCount * 2);
+        }
+        commands[commandCount] = command;
+        return commandCount++;
+    }
+
+    public void pressButton(int button) {
+        if (button < 0 || button >= commandCount) {
+            throw new IllegalArgumentException("Unknown button: " + button);
+        }
+        commands[button].execute();
+
+        history[slotOf(cursor)] = button;
+        cursor++;
+        // 新しい操作をしたら、Redo できる操作は捨てる
+        newest = cursor;
+        if (cursor - oldest > history.length) {
+            oldest = cursor - history.length;
+        }
+    }
+
+    public boolean undo() {
+        if (cursor == oldest) {
+            return false;
+        }
+        cursor--;
+        commands[history[slotOf(cursor)]].undo();
+        return true;
+    }
+
+    public boolean redo() {
+        if (cursor == newest) {
+            return false;
+        }
+        commands[history[slotOf(cursor)]].execute();
+        cursor++;
+        return true;
+    }
+
+    public int getUndoableCount() {
+        return (int) (cursor - oldest);
+    }
+
+    public int getRedoableCount() {
+        return (int) (newest - cursor);
+    }
+
+    private int slotOf(long sequence) {
+        return (int) (sequence % history.length);
+    }
+}
+
+public class UndoRedoExample {
+    public static void main(String[] args) {
+        System.out.println("=== Undo/Redo のデモ ===\n");
+        Light light = new Light();
+
+        // 履歴は3件だけ
+        UndoableRemoteControl remote = new UndoableRemoteControl(3);
+        int on = remote.register(new LightOnCommand(light));
+        int off = remote.register(new LightOffCommand(light));
+
+        System.out.println("--- ON, OFF, ON, OFF ---");
+        remote.pressButton(on);
+        remote.pressButton(off);
+        remote.pressButton(on);
+        remote.pressButton(off);
+
+        System.out.println("\n--- Undo を4回（履歴は3件なので、4回目は何もしない） ---");
+        for (int i = 0; i < 4; i++) {
+            System.out.println("undo: " + remote.undo());
+        }
+
+        System.out.println("\n--- Redo を1回 ---");
+        remote.redo();
+
+        System.out.println("\n--- 新しく OFF を押すと、残りの Redo は消える ---");
+        remote.pressButton(off);
+        System.out.println("redoable: " + remote.getRedoableCount() + ", undoable: " + remote.getUndoableCount());
+    }
+}
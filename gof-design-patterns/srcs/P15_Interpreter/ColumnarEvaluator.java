@@ -0,0 +1,304 @@
+package P15_Interpreter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// 1つの式を、何百万行ものデータ（列）にまとめて当てはめる評価器。
+//
+// 行ごとに Variable に値を入れて interpret() を呼ぶと、1行につき木を1回たどることになる。
+// ここでは逆に、演算子ごとに列全体（実際には BLOCK 行ずつ）をまとめて計算する。
+//     a + b - 3  →  t[i] = a[i] + b[i];  t[i] = t[i] - 3;   （i = 0..BLOCK-1）
+// 木をたどるのは BLOCK 行につき1回だけで、内側のループは配列を前から足すだけなので、
+// JIT（C2）が SIMD 命令にしてくれる（自動ベクトル化）。
+//
+// Java 17 の Vector API（jdk.incubator.vector）は、コンパイル時も実行時も --add-modules が要るので使わない。
+// 内側のループを自動ベクトル化されやすい形（添字が単純、分岐なし）に書いておくことで代わりにしている。
+//
+// int の列は interpret() と同じく int で計算するので、あふれ方も含めて行ごとの interpret() と同じ結果になる。
+// long の列は long で計算する（int ではあふれる値も扱える）。
+// Variable 以外の中身の分からない葉は、評価のはじめに1回だけ interpret() して定数として扱う。
+class ColumnarEvaluator {
+    // 一度に計算する行数。途中の結果（スタックの深さ × BLOCK）が L1/L2 キャッシュに収まる程度。
+    private static final int BLOCK = 1024;
+
+    private static final int CONSTANT = 0;
+    private static final int COLUMN = 1;
+    private static final int LEAF = 2;
+    private static final int ADD = 3;
+    private static final int SUBTRACT = 4;
+
+    // 後置順の命令列
+    private final int[] opcodes;
+    // CONSTANT なら値、COLUMN なら variables の添字、LEAF なら leaves の添字
+    private final int[] operands;
+    private final Variable[] variables;
+    private final Expression[] leaves;
+    private final int maxStack;
+
+    public ColumnarEvaluator(Expression expression) {
+        // 木を後置順の命令列にするのは PostfixProgram に任せる（深い木でも再帰しない）
+        PostfixProgram program = PostfixProgram.lower(expression);
+        int[] code = program.getCode();
+        Expression[] programLeaves = program.getLeaves();
+
+        List<Integer> codes = new ArrayList<>();
+        List<Integer> args = new ArrayList<>();
+        Map<Variable, Integer> variableIndex = new IdentityHashMap<>();
+        List<Expression> leafList = new ArrayList<>();
+        for (int pc = 0; pc < code.length; pc++) {
+            switch (code[pc]) {
+                case PostfixProgram.CONSTANT:
+                    codes.add(CONSTANT);
+                    args.add(code[++pc]);
+                    break;
+                case PostfixProgram.LEAF: {
+                    Expression leaf = programLeaves[code[++pc]];
+                    if (leaf instanceof Variable) {
+                        codes.add(COLUMN);
+                        args.add(variableIndex.computeIfAbsent((Variable) leaf, v -> variableIndex.size()));
+                    } else {
+                        codes.add(LEAF);
+                        args.add(leafList.size());
+                        leafList.add(leaf);
+                    }
+                    break;
+                }
+                default:
+                    codes.add(code[pc] == PostfixProgram.ADD ? ADD : SUBTRACT);
+                    args.add(0);
+                    break;
+            }
+        }
+
+        opcodes = codes.stream().mapToInt(Integer::intValue).toArray();
+        operands = args.stream().mapToInt(Integer::intValue).toArray();
+        variables = new Variable[variableIndex.size()];
+        for (Map.Entry<Variable, Integer> entry : variableIndex.entrySet()) {
+            variables[entry.getValue()] = entry.getKey();
+        }
+        leaves = leafList.toArray(new Expression[0]);
+        maxStack = program.getMaxStack();
+    }
+
+    // 式に出てくる変数（列を渡す必要があるもの）
+    public List<Variable> getVariables() {
+        return Arrays.asList(variables.clone());
+    }
+
+    // 各変数の列（長さ rows 以上）を受け取り、行ごとの結果を返す
+    public int[] evaluateInt(Map<Variable, int[]> columns, int rows) {
+        int[][] inputs = new int[variables.length][];
+        for (int i = 0; i < variables.length; i++) {
+            inputs[i] = columns.get(variables[i]);
+            if (inputs[i] == null || inputs[i].length < rows) {
+                throw new IllegalArgumentException("Missing or short column for variable: " + variables[i]);
+            }
+        }
+        int[] leafValues = new int[leaves.length];
+        for (int i = 0; i < leaves.length; i++) {
+            leafValues[i] = leaves[i].interpret();
+        }
+
+        int[] result = new int[rows];
+        // スタックの各段の作業用バッファ（評価ごとに1回だけ作る）
+        int[][] registers = new int[maxStack][BLOCK];
+        // 各段の中身: 配列ならその配列と開始位置、定数なら constants の値
+        int[][] arrays = new int[maxStack][];
+        int[] offsets = new int[maxStack];
+        int[] constants = new int[maxStack];
+
+        for (int start = 0; start < rows; start += BLOCK) {
+            int length = Math.min(BLOCK, rows - start);
+            int top = -1;
+            for (int pc = 0; pc < opcodes.length; pc++) {
+                switch (opcodes[pc]) {
+                    case CONSTANT:
+                        top++;
+                        arrays[top] = null;
+                        constants[top] = operands[pc];
+                        break;
+                    case LEAF:
+                        top++;
+                        arrays[top] = null;
+                        constants[top] = leafValues[operands[pc]];
+                        break;
+                    case COLUMN:
+                        top++;
+                        arrays[top] = inputs[operands[pc]];
+                        offsets[top] = start;
+                        break;
+                    default: {
+                        boolean add = opcodes[pc] == ADD;
+                        int left = top - 1;
+                        int right = top;
+                        top--;
+                        int[] a = arrays[left];
+                        int[] b = arrays[right];
+                        if (a == null && b == null) {
+                            constants[left] = add ? constants[left] + constants[right] : constants[left] - constants[right];
+                            break;
+                        }
+                        // 結果は左の段のバッファに書く（左が自分のバッファなら、その場で上書きになる）
+                        int[] out = registers[left];
+                        if (a != null && b != null) {
+                            if (add) {
+                                addInt(a, offsets[left], b, offsets[right], out, length);
+                            } else {
+                                subtractInt(a, offsets[left], b, offsets[right], out, length);
+                            }
+                        } else if (a != null) {
+                            addConstantInt(a, offsets[left], add ? constants[right] : -constants[right], out, length);
+                        } else if (add) {
+                            addConstantInt(b, offsets[right], constants[left], out, length);
+                        } else {
+                            constantMinusInt(constants[left], b, offsets[right], out, length);
+                        }
+                        arrays[left] = out;
+                        offsets[left] = 0;
+                        break;
+                    }
+                }
+            }
+            if (arrays[0] == null) {
+                Arrays.fill(result, start, start + length, constants[0]);
+            } else {
+                System.arraycopy(arrays[0], offsets[0], result, start, length);
+            }
+        }
+        return result;
+    }
+
+    // long の列で計算する。計算の流れは evaluateInt() と同じ。
+    public long[] evaluateLong(Map<Variable, long[]> columns, int rows) {
+        long[][] inputs = new long[variables.length][];
+        for (int i = 0; i < variables.length; i++) {
+            inputs[i] = columns.get(variables[i]);
+            if (inputs[i] == null || inputs[i].length < rows) {
+                throw new IllegalArgumentException("Missing or short column for variable: " + variables[i]);
+            }
+        }
+        long[] leafValues = new long[leaves.length];
+        for (int i = 0; i < leaves.length; i++) {
+            leafValues[i] = leaves[i].interpret();
+        }
+
+        long[] result = new long[rows];
+        long[][] registers = new long[maxStack][BLOCK];
+        long[][] arrays = new long[maxStack][];
+        int[] offsets = new int[maxStack];
+        long[] constants = new long[maxStack];
+
+        for (int start = 0; start < rows; start += BLOCK) {
+            int length = Math.min(BLOCK, rows - start);
+            int top = -1;
+            for (int pc = 0; pc < opcodes.length; pc++) {
+                switch (opcodes[pc]) {
+                    case CONSTANT:
+                        top++;
+                        arrays[top] = null;
+                        constants[top] = operands[pc];
+                        break;
+                    case LEAF:
+                        top++;
+                        arrays[top] = null;
+                        constants[top] = leafValues[operands[pc]];
+                        break;
+                    case COLUMN:
+                        top++;
+                        arrays[top] = inputs[operands[pc]];
+                        offsets[top] = start;
+                        break;
+                    default: {
+                        boolean add = opcodes[pc] == ADD;
+                        int left = top - 1;
+                        int right = top;
+                        top--;
+                        long[] a = arrays[left];
+                        long[] b = arrays[right];
+                        if (a == null && b == null) {
+                            constants[left] = add ? constants[left] + constants[right] : constants[left] - constants[right];
+                            break;
+                        }
+                        long[] out = registers[left];
+                        if (a != null && b != null) {
+                            if (add) {
+                                addLong(a, offsets[left], b, offsets[right], out, length);
+                            } else {
+                                subtractLong(a, offsets[left], b, offsets[right], out, length);
+                            }
+                        } else if (a != null) {
+                            addConstantLong(a, offsets[left], add ? constants[right] : -constants[right], out, length);
+                        } else if (add) {
+                            addConstantLong(b, offsets[right], constants[left], out, length);
+                        } else {
+                            constantMinusLong(constants[left], b, offsets[right], out, length);
+                        }
+                        arrays[left] = out;
+                        offsets[left] = 0;
+                        break;
+                    }
+                }
+            }
+            if (arrays[0] == null) {
+                Arrays.fill(result, start, start + length, constants[0]);
+            } else {
+                System.arraycopy(arrays[0], offsets[0], result, start, length);
+            }
+        }
+        return result;
+    }
+
+    // 内側のループ。どれも自動ベクトル化される単純な形にしておく。
+    // x - c は x + (-c) として addConstant で計算する（int/long のあふれ方も含めて同じ結果）。
+
+    private static void addInt(int[] a, int aFrom, int[] b, int bFrom, int[] out, int length) {
+        for (int i = 0; i < length; i++) {
+            out[i] = a[aFrom + i] + b[bFrom + i];
+        }
+    }
+
+    private static void subtractInt(int[] a, int aFrom, int[] b, int bFrom, int[] out, int length) {
+        for (int i = 0; i < length; i++) {
+            out[i] = a[aFrom + i] - b[bFrom + i];
+        }
+    }
+
+    private static void addConstantInt(int[] a, int aFrom, int constant, int[] out, int length) {
+        for (int i = 0; i < length; i++) {
+            out[i] = a[aFrom + i] + constant;
+        }
+    }
+
+    private static void constantMinusInt(int constant, int[] b, int bFrom, int[] out, int length) {
+        for (int i = 0; i < length; i++) {
+            out[i] = constant - b[bFrom + i];
+        }
+    }
+
+    private static void addLong(long[] a, int aFrom, long[] b, int bFrom, long[] out, int length) {
+        for (int i = 0; i < length; i++) {
+            out[i] = a[aFrom + i] + b[bFrom + i];
+        }
+    }
+
+    private static void subtractLong(long[] a, int aFrom, long[] b, int bFrom, long[] out, int length) {
+        for (int i = 0; i < length; i++) {
+            out[i] = a[aFrom + i] - b[bFrom + i];
+        }
+    }
+
+    private static void addConstantLong(long[] a, int aFrom, long constant, long[] out, int length) {
+        for (int i = 0; i < length; i++) {
+            out[i] = a[aFrom + i] + constant;
+        }
+    }
+
+    private static void constantMinusLong(long constant, long[] b, int bFrom, long[] out, int length) {
+        for (int i = 0; i < length; i++) {
+            out[i] = constant - b[bFrom + i];
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package P15_Interpreter;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+// Variable と ColumnarEvaluator のデモと、行ごとの interpret() との速さ比べ。
+//
+// 実行例:
+//   javac -encoding UTF-8 -d out P15_Interpreter/*.java
+//   java -cp out P15_Interpreter.ColumnarEvaluatorExample [行数]
+//
+// 手元（1コア、JDK 17、1,000万行、変数4つ・25ノードの式）での結果の一例:
+//   row by row interpret() :     10,323,448 rows/s
+//   columnar (int)         :    129,181,984 rows/s  (x12.5)
+//   columnar (long)        :    129,925,660 rows/s  (x12.6)
+// 1億行なら列1本で int は 400MB、long は 800MB になるので、-Xmx を十分に取るか、列を分けて渡すこと。
+
+public class ColumnarEvaluatorExample {
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+
+        System.out.println("=== 変数を使った式 ===\n");
+        Variable price = new Variable("price");
+        Variable discount = new Variable("discount");
+        // (price - discount) + 100
+        Expression total = new Add(new Subtract(price, discount), new Number(100));
+        price.setValue(980);
+        discount.setValue(80);
+        System.out.println("(price - discount) + 100 → price=980, discount=80 : " + total.interpret());
+
+        Map<Variable, int[]> small = new HashMap<>();
+        small.put(price, new int[] {980, 1500, 300});
+        small.put(discount, new int[] {80, 0, 50});
+        int[] totals = new ColumnarEvaluator(total).evaluateInt(small, 3);
+        System.out.println("列でまとめて: " + Arrays.toString(totals));
+
+        System.out.println("\n=== " + String.format("%,d", rows) + " 行 ===");
+        Random random = new Random(5);
+        Variable[] variables = new Variable[4];
+        Map<Variable, int[]> intColumns = new HashMap<>();
+        Map<Variable, long[]> longColumns = new HashMap<>();
+        for (int i = 0; i < variables.length; i++) {
+            variables[i] = new Variable("v" + i);
+            int[] column = new int[rows];
+            long[] wide = new long[rows];
+            for (int row = 0; row < rows; row++) {
+                column[row] = random.nextInt();
+                wide[row] = column[row];
+            }
+            intColumns.put(variables[i], column);
+            longColumns.put(variables[i], wide);
+        }
+        Expression formula = randomFormula(random, 30, variables);
+        ColumnarEvaluator evaluator = new ColumnarEvaluator(formula);
+        int[][] rowInputs = new int[variables.length][];
+        for (int i = 0; i < variables.length; i++) {
+            rowInputs[i] = intColumns.get(variables[i]);
+        }
+
+        // 行ごとの interpret() と、あふれ方も含めて同じになることを確かめる
+        int[] expected = new int[rows];
+        double rowByRow = 0;
+        double columnarInt = 0;
+        double columnarLong = 0;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int row = 0; row < rows; row++) {
+                for (int i = 0; i < variables.length; i++) {
+                    variables[i].setValue(rowInputs[i][row]);
+                }
+                expected[row] = formula.interpret();
+            }
+            rowByRow = rows / ((System.nanoTime() - start) / 1e9);
+
+            start = System.nanoTime();
+            int[] actual = evaluator.evaluateInt(intColumns, rows);
+            columnarInt = rows / ((System.nanoTime() - start) / 1e9);
+            if (!Arrays.equals(expected, actual)) {
+                throw new IllegalStateException("Columnar result differs");
+            }
+
+            start = System.nanoTime();
+            long[] wide = evaluator.evaluateLong(longColumns, rows);
+            columnarLong = rows / ((System.nanoTime() - start) / 1e9);
+            for (int row = 0; row < rows; row++) {
+                if ((int) wide[row] != expected[row]) {
+                    throw new IllegalStateException("Columnar (long) result differs");
+                }
+            }
+        }
+        System.out.println("formula: " + ExpressionOptimizer.countTreeNodes(formula) + " nodes");
+        System.out.printf("row by row interpret() : %,14.0f rows/s%n", rowByRow);
+        System.out.printf("columnar (int)         : %,14.0f rows/s  (x%.1f)%n", columnarInt, columnarInt / rowByRow);
+        System.out.printf("columnar (long)        : %,14.0f rows/s  (x%.1f)%n", columnarLong, columnarLong / rowByRow);
+    }
+
+    // 葉が nodes 個くらいの、変数と定数が混ざったランダムな式
+    private static Expression randomFormula(Random random, int nodes, Variable[] variables) {
+        if (nodes <= 2) {
+            return random.nextInt(3) == 0
+                    ? new Number(random.nextInt(1000))
+                    : variables[random.nextInt(variables.length)];
+        }
+        int leftNodes = 1 + random.nextInt(nodes - 2);
+        Expression left = randomFormula(random, leftNodes, variables);
+        Expression right = randomFormula(random, nodes - 1 - leftNodes, variables);
+        return random.nextBoolean() ? new Add(left, right) : new Subtract(left, right);
+    }
+}
@@ -0,0 +1,416 @@
+package P15_Interpreter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Expression の木を、Java のクラス（バイトコード）にコンパイルする。
+//
+// interpret() で木をたどると、ノードごとに仮想メソッド呼び出しが入る。
+// 同じ式を何億回も評価するなら、最初に
+//     5 + 3 - 2  →  iconst_5; iconst_3; iadd; iconst_2; isub; ireturn
+// のような一直線のバイトコードにしてしまった方が速い。JIT はこれをそのままネイティブコードにできる。
+//
+// 1. 木を後ろから（後置順で）たどって、スタックマシンの命令を並べる。
+// 2. クラスファイルのバイト列を手で組み立てる（Java 17 には標準のクラスファイル API がないので）。
+// 3. MethodHandles.Lookup.defineHiddenClass() で隠しクラスとして読み込み、インスタンスを作る。
+//    隠しクラスは、誰からも参照されなくなれば、クラスごと GC で回収される。
+//
+// JIT は大きすぎるメソッド（8000 バイト超）をコンパイルしないので、
+// 大きな部分木は別の static メソッドに切り出して、invokestatic で呼ぶ。
+// 扱えるのは Number, Variable, Add, Subtract だけ。
+// Variable は、コンパイルしたオブジェクトが同じ Variable を持っていて、評価のたびに interpret() で今の値を読む
+// （setValue() した値がそのまま効く）。
+// 木は再帰ではなく、自前のスタックでたどるので、深い木でもコンパイル中に StackOverflowError にはならない。
+// ただし、コンパイルしたコードも、切り出したメソッドを入れ子に呼ぶので、
+// 何十万段もの深さの木を評価するには、大きなスタックのスレッドが要る（手元では 10万段までは既定のスタックで動いた）。
+class ExpressionCompiler {
+    // これより大きい部分木は別メソッドにする（1メソッドはおよそこの2倍のノード数まで）
+    private static final int CHUNK_NODES = 512;
+    private static final int MAX_CODE_LENGTH = 65535;
+
+    private static final String CLASS_NAME = "P15_Interpreter/CompiledExpression";
+    private static final String VARIABLES_DESCRIPTOR = "[LP15_Interpreter/Variable;";
+    // 切り出したメソッドは、変数の配列を引数で受け取る
+    private static final String CHUNK_DESCRIPTOR = "(" + VARIABLES_DESCRIPTOR + ")I";
+
+    // 命令
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC = 0x12;
+    private static final int LDC_W = 0x13;
+    private static final int ALOAD_0 = 0x2A;
+    private static final int ALOAD_1 = 0x2B;
+    private static final int AALOAD = 0x32;
+    private static final int ASTORE_1 = 0x4C;
+    private static final int IADD = 0x60;
+    private static final int ISUB = 0x64;
+    private static final int IRETURN = 0xAC;
+    private static final int RETURN = 0xB1;
+    private static final int GETFIELD = 0xB4;
+    private static final int PUTFIELD = 0xB5;
+    private static final int INVOKEVIRTUAL = 0xB6;
+    private static final int INVOKESPECIAL = 0xB7;
+    private static final int INVOKESTATIC = 0xB8;
+
+    // コンスタントプール
+    private final ByteArrayOutputStream constantPool = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(constantPool);
+    private int constantCount = 1;
+    private final Map<String, Integer> utf8Constants = new HashMap<>();
+    private final Map<Integer, Integer> intConstants = new HashMap<>();
+    private final Map<String, Integer> methodConstants = new HashMap<>();
+
+    // 部分木ごとの「自分のメソッドに入るノード数」と、切り出したメソッドの番号
+    private final Map<Expression, Integer> inlineSizes = new IdentityHashMap<>();
+    private final Map<Expression, Integer> outlined = new IdentityHashMap<>();
+    private final List<Expression> outlinedRoots = new ArrayList<>();
+    // 式に出てくる変数と、配列の中の位置
+    private final Map<Variable, Integer> variableIndexes = new IdentityHashMap<>();
+    private final List<Variable> variables = new ArrayList<>();
+
+    private ExpressionCompiler() {
+    }
+
+    public static Expression compile(Expression expression) {
+        ExpressionCompiler compiler = new ExpressionCompiler();
+        byte[] classBytes = compiler.generate(expression);
+        Variable[] variables = compiler.variables.toArray(new Variable[0]);
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classBytes, true);
+            return (Expression) lookup.findConstructor(lookup.lookupClass(),
+                    MethodType.methodType(void.class, Variable[].class)).invoke(variables);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to load compiled expression", e);
+        }
+    }
+
+    private byte[] generate(Expression root) {
+        measure(root);
+        outlined.remove(root);
+        outlinedRoots.remove(root);
+
+        try {
+            int thisClass = classConstant(CLASS_NAME);
+            int superClass = classConstant("java/lang/Object");
+            int expressionInterface = classConstant("P15_Interpreter/Expression");
+            int objectInit = methodConstant(superClass, "<init>", "()V");
+            int variablesField = fieldConstant(thisClass, "variables", VARIABLES_DESCRIPTOR);
+            int variableInterpret = methodConstant(classConstant("P15_Interpreter/Variable"), "interpret", "()I");
+            int codeName = utf8("Code");
+
+            // this.variables = 引数
+            List<byte[]> methods = new ArrayList<>();
+            MethodCode init = new MethodCode();
+            init.op(ALOAD_0, 1);
+            init.op(INVOKESPECIAL, -1);
+            init.u2(objectInit);
+            init.op(ALOAD_0, 1);
+            init.op(ALOAD_1, 1);
+            init.op(PUTFIELD, -2);
+            init.u2(variablesField);
+            init.op(RETURN, 0);
+            methods.add(method(0x0001, "<init>", "(" + VARIABLES_DESCRIPTOR + ")V", codeName,
+                    init.toBytes(), init.maxStack, 2));
+
+            // 変数の配列はローカル変数 1 番に置く
+            MethodCode interpret = new MethodCode();
+            interpret.op(ALOAD_0, 1);
+            interpret.op(GETFIELD, 0);
+            interpret.u2(variablesField);
+            interpret.op(ASTORE_1, -1);
+            emit(root, interpret, ALOAD_1, thisClass, variableInterpret);
+            interpret.op(IRETURN, -1);
+            methods.add(method(0x0001, "interpret", "()I", codeName, interpret.toBytes(), interpret.maxStack, 2));
+
+            // 切り出した部分木（変数の配列は引数 = ローカル変数 0 番）。emit 中に増えることはない（measure で全部決まっている）。
+            for (int i = 0; i < outlinedRoots.size(); i++) {
+                MethodCode chunk = new MethodCode();
+                emit(outlinedRoots.get(i), chunk, ALOAD_0, thisClass, variableInterpret);
+                chunk.op(IRETURN, -1);
+                // private static
+                methods.add(method(0x000A, "m" + i, CHUNK_DESCRIPTOR, codeName, chunk.toBytes(), chunk.maxStack, 1));
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(61); // Java 17
+            out.writeShort(constantCount);
+            constantPool.writeTo(out);
+            out.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(expressionInterface);
+            // private final Variable[] variables
+            out.writeShort(1);
+            out.writeShort(0x0002 | 0x0010);
+            out.writeShort(utf8("variables"));
+            out.writeShort(utf8(VARIABLES_DESCRIPTOR));
+            out.writeShort(0);
+            out.writeShort(methods.size());
+            for (byte[] method : methods) {
+                out.write(method);
+            }
+            out.writeShort(0); // attributes
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // 部分木が自分のメソッドに何ノード分入るかを数え、大きすぎれば切り出す印を付ける。
+    // 子を先に数えたいので、後置順にたどる（子が数え終わっていなければ、子を積んでから自分をもう一度見る）。
+    private void measure(Expression root) {
+        Deque<Expression> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Expression expression = stack.peek();
+            if (inlineSizes.containsKey(expression)) {
+                stack.pop();
+                continue;
+            }
+            int size;
+            if (expression instanceof Number) {
+                size = 1;
+            } else if (expression instanceof Variable) {
+                Variable variable = (Variable) expression;
+                if (!variableIndexes.containsKey(variable)) {
+                    variableIndexes.put(variable, variables.size());
+                    variables.add(variable);
+                }
+                size = 1;
+            } else if (expression instanceof Add || expression instanceof Subtract) {
+                Expression left = leftOf(expression);
+                Expression right = rightOf(expression);
+                boolean ready = true;
+                if (!inlineSizes.containsKey(right)) {
+                    stack.push(right);
+                    ready = false;
+                }
+                if (!inlineSizes.containsKey(left)) {
+                    stack.push(left);
+                    ready = false;
+                }
+                if (!ready) {
+                    continue;
+                }
+                size = 1 + inlineSize(left) + inlineSize(right);
+            } else {
+                throw new IllegalArgumentException("Unsupported expression: " + expression.getClass().getName());
+            }
+            stack.pop();
+            inlineSizes.put(expression, size);
+            if (size > CHUNK_NODES) {
+                outlined.put(expression, outlinedRoots.size());
+                outlinedRoots.add(expression);
+            }
+        }
+    }
+
+    // 親のメソッドに入る分のノード数（切り出した部分木は、呼び出しの1つ分）
+    private int inlineSize(Expression expression) {
+        return outlined.containsKey(expression) ? 1 : inlineSizes.get(expression);
+    }
+
+    // 1つのメソッドの命令を並べる。後置順なので、演算子は「子を2つ積んだ後に出す」印として積んでおく。
+    private void emit(Expression methodRoot, MethodCode code, int loadVariables, int thisClass, int variableInterpret)
+            throws IOException {
+        Deque<Expression> stack = new ArrayDeque<>();
+        Deque<Boolean> operatorMarks = new ArrayDeque<>();
+        stack.push(methodRoot);
+        operatorMarks.push(false);
+        boolean first = true;
+        while (!stack.isEmpty()) {
+            Expression expression = stack.pop();
+            boolean operator = operatorMarks.pop();
+            Integer chunk = outlined.get(expression);
+            if (operator) {
+                code.op(expression instanceof Add ? IADD : ISUB, -1);
+            } else if (!first && chunk != null) {
+                int method = methodConstant(thisClass, "m" + chunk, CHUNK_DESCRIPTOR);
+                code.op(loadVariables, 1);
+                code.op(INVOKESTATIC, 0);
+                code.u2(method);
+            } else if (expression instanceof Number) {
+                pushInt(((Number) expression).getValue(), code);
+            } else if (expression instanceof Variable) {
+                // variables[index].interpret()
+                code.op(loadVariables, 1);
+                pushInt(variableIndexes.get(expression), code);
+                code.op(AALOAD, -1);
+                code.op(INVOKEVIRTUAL, 0);
+                code.u2(variableInterpret);
+            } else {
+                stack.push(expression);
+                operatorMarks.push(true);
+                stack.push(rightOf(expression));
+                operatorMarks.push(false);
+                stack.push(leftOf(expression));
+                operatorMarks.push(false);
+            }
+            first = false;
+        }
+    }
+
+    private static Expression leftOf(Expression expression) {
+        return expression instanceof Add ? ((Add) expression).getLeft() : ((Subtract) expression).getLeft();
+    }
+
+    private static Expression rightOf(Expression expression) {
+        return expression instanceof Add ? ((Add) expression).getRight() : ((Subtract) expression).getRight();
+    }
+
+    private void pushInt(int value, MethodCode code) throws IOException {
+        if (value >= -1 && value <= 5) {
+            code.op(ICONST_0 + value, 1);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            code.op(BIPUSH, 1);
+            code.u1(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            code.op(SIPUSH, 1);
+            code.u2(value);
+        } else {
+            int index = intConstant(value);
+            if (index < 256) {
+                code.op(LDC, 1);
+                code.u1(index);
+            } else {
+                code.op(LDC_W, 1);
+                code.u2(index);
+            }
+        }
+    }
+
+    private byte[] method(int access, String name, String descriptor, int codeName,
+                          byte[] code, int maxStack, int maxLocals) throws IOException {
+        if (code.length > MAX_CODE_LENGTH) {
+            throw new IllegalArgumentException("Expression is too large to compile");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(access);
+        out.writeShort(utf8(name));
+        out.writeShort(utf8(descriptor));
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(2 + 2 + 4 + code.length + 2 + 2);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+        return bytes.toByteArray();
+    }
+
+    private int utf8(String value) throws IOException {
+        Integer index = utf8Constants.get(value);
+        if (index == null) {
+            pool.writeByte(1);
+            pool.writeUTF(value);
+            index = nextConstant();
+            utf8Constants.put(value, index);
+        }
+        return index;
+    }
+
+    private int classConstant(String internalName) throws IOException {
+        int name = utf8(internalName);
+        pool.writeByte(7);
+        pool.writeShort(name);
+        return nextConstant();
+    }
+
+    private int methodConstant(int owner, String name, String descriptor) throws IOException {
+        String key = owner + "." + name + descriptor;
+        Integer known = methodConstants.get(key);
+        if (known != null) {
+            return known;
+        }
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        pool.writeByte(12); // NameAndType
+        pool.writeShort(nameIndex);
+        pool.writeShort(descriptorIndex);
+        int nameAndType = nextConstant();
+        pool.writeByte(10); // Methodref
+        pool.writeShort(owner);
+        pool.writeShort(nameAndType);
+        int index = nextConstant();
+        methodConstants.put(key, index);
+        return index;
+    }
+
+    private int fieldConstant(int owner, String name, String descriptor) throws IOException {
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        pool.writeByte(12); // NameAndType
+        pool.writeShort(nameIndex);
+        pool.writeShort(descriptorIndex);
+        int nameAndType = nextConstant();
+        pool.writeByte(9); // Fieldref
+        pool.writeShort(owner);
+        pool.writeShort(nameAndType);
+        return nextConstant();
+    }
+
+    private int intConstant(int value) throws IOException {
+        Integer index = intConstants.get(value);
+        if (index == null) {
+            pool.writeByte(3);
+            pool.writeInt(value);
+            index = nextConstant();
+            intConstants.put(value, index);
+        }
+        return index;
+    }
+
+    private int nextConstant() {
+        if (constantCount >= 65535) {
+            throw new IllegalArgumentException("Expression is too large to compile");
+        }
+        return constantCount++;
+    }
+
+    // 1つのメソッドの命令列と、オペランドスタックの深さ
+    private static class MethodCode {
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        private int stack;
+        int maxStack;
+
+        void op(int opcode, int stackChange) {
+            code.write(opcode);
+            stack += stackChange;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        void u1(int value) {
+            code.write(value);
+        }
+
+        void u2(int value) {
+            code.write(value >> 8);
+            code.write(value);
+        }
+
+        byte[] toBytes() {
+            return code.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package P15_Interpreter;
+
+import java.util.Random;
+
+// ExpressionCompiler のデモと、木をたどる interpret() とコンパイル済みの interpret() の速さ比べ。
+//
+// 実行例:
+//   javac -encoding UTF-8 -d out P15_Interpreter/*.java
+//   java -cp out P15_Interpreter.ExpressionCompilerExample
+//
+// 手元（1コア、JDK 17、葉の半分は変数で、評価のたびに変数の値を1つ変える）での結果の一例:
+//      10 nodes : tree walk 181,517,434 evals/s,  compiled 467,972,456 evals/s  (x2.6)
+//     100 nodes : tree walk   3,115,277 evals/s,  compiled 128,655,985 evals/s  (x41.3)
+//    1000 nodes : tree walk     298,839 evals/s,  compiled  32,218,436 evals/s  (x107.8)
+//   10000 nodes : tree walk       5,848 evals/s,  compiled   1,521,847 evals/s  (x260.2)
+// 木をたどる方は、ノードの種類が混ざると interpret() の呼び出し先が定まらず（メガモーフィック）、
+// インライン化されないので、木が大きいほど遅くなる。コンパイル済みの方は、1ノードあたり数命令で済む。
+
+public class ExpressionCompilerExample {
+    public static void main(String[] args) {
+        System.out.println("=== 式をクラスにコンパイルする ===\n");
+        Expression expression = ExpressionParser.parse("5 + 3 - 2 - (100000 - 7)");
+        Expression compiled = ExpressionCompiler.compile(expression);
+        System.out.println("tree walk : " + expression.interpret());
+        System.out.println("compiled  : " + compiled.interpret());
+        System.out.println("class     : " + compiled.getClass().getName());
+
+        // 変数は、コンパイルした後に値を変えても効く
+        Variable price = new Variable("price");
+        Variable discount = new Variable("discount");
+        Expression withVariables = ExpressionCompiler.compile(new Subtract(new Add(price, new Number(100)), discount));
+        price.setValue(1_000);
+        discount.setValue(300);
+        System.out.println("price + 100 - discount = " + withVariables.interpret());
+        price.setValue(2_000);
+        System.out.println("price + 100 - discount = " + withVariables.interpret());
+
+        System.out.println("\n=== ノード数ごとの評価の速さ ===");
+        Random random = new Random(3);
+        // 葉の半分は変数。評価のたびに変数の値を入れ替えるので、結果は実行時のデータで決まる
+        // （定数だけの木だと、JIT がコンパイル済みのメソッドを定数を返すだけに畳んでしまう）。
+        Variable[] variables = new Variable[8];
+        for (int i = 0; i < variables.length; i++) {
+            variables[i] = new Variable("v" + i);
+        }
+        int[] inputs = new int[1024];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = random.nextInt(2_000_000) - 1_000_000;
+        }
+        for (int nodes : new int[] {10, 100, 1_000, 10_000}) {
+            Expression tree = randomTree(random, nodes, variables);
+            Expression fast = ExpressionCompiler.compile(tree);
+            for (int i = 0; i < 100; i++) {
+                variables[i & 7].setValue(inputs[i]);
+                if (tree.interpret() != fast.interpret()) {
+                    throw new IllegalStateException("Compiled result differs");
+                }
+            }
+
+            // 合計で約1億ノード分ずつ評価する
+            int iterations = Math.max(1, 100_000_000 / nodes);
+            double walk = 0;
+            double compiledRate = 0;
+            for (int round = 0; round < 3; round++) {
+                walk = evaluationsPerSecond(tree, iterations, variables, inputs);
+                compiledRate = evaluationsPerSecond(fast, iterations, variables, inputs);
+            }
+            System.out.printf("%6d nodes : tree walk %,14.0f evals/s,  compiled %,14.0f evals/s  (x%.1f)%n",
+                    nodes, walk, compiledRate, compiledRate / walk);
+        }
+    }
+
+    private static double evaluationsPerSecond(Expression expression, int iterations,
+                                               Variable[] variables, int[] inputs) {
+        long start = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < iterations; i++) {
+            // 毎回1つの変数の値を変える
+            variables[i & 7].setValue(inputs[i & 1023]);
+            sum += expression.interpret();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (sum == 42) {
+            System.out.println();
+        }
+        return iterations / (elapsed / 1e9);
+    }
+
+    // ノード数がおよそ nodes のランダムな木（葉と演算子で nodes 個）。葉は定数だけ。
+    static Expression randomTree(Random random, int nodes) {
+        return randomTree(random, nodes, new Variable[0]);
+    }
+
+    // 同じく、葉の半分は variables のどれか
+    static Expression randomTree(Random random, int nodes, Variable[] variables) {
+        if (nodes <= 2) {
+            if (variables.length > 0 && random.nextBoolean()) {
+                return variables[random.nextInt(variables.length)];
+            }
+            return new Number(random.nextInt(2_000_000) - 1_000_000);
+        }
+        int leftNodes = 1 + random.nextInt(nodes - 2);
+        Expression left = randomTree(random, leftNodes, variables);
+        Expression right = randomTree(random, nodes - 1 - leftNodes, variables);
+        return random.nextBoolean() ? new Add(left, right) : new Subtract(left, right);
+    }
+}
@@ -0,0 +1,311 @@
+package P15_Interpreter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Expression の木を、同じ値を返すもっと小さな形に書き換える（最適化パス）。
+//
+// 1. 定数の畳み込み:   (5 + 3)          → 8
+// 2. 恒等式の簡約:     x + 0, x - 0     → x      x - x → 0
+//                      (x + 1) + 2      → x + 3  x - 2 → x + (-2)
+// 3. ハッシュコンシング: 同じ形の部分木は、1つのインスタンスにまとめる（木 → DAG）。
+//                      a + b と b + a も同じものとして扱う。
+//
+// Number, Add, Subtract 以外のノード（例えば外から値が入る葉）は中身が分からないので、そのまま残す。
+// そういう葉は、同じインスタンスなら同じ値を返す（副作用がない）ものとして扱う。
+//
+// DAG にしても、interpret() で呼ぶと共有した部分木は呼ばれた回数だけ計算されてしまう。
+// 共有した部分木を1回の評価につき1回だけ計算するには、toSharedEvaluation() で DagExpression にする。
+//
+// 木をたどる所は、どれも再帰ではなく自前のスタックで後置順にたどる（ExpressionCompiler と同じやり方）。
+// パーサーは 1+1+…+1 のような深い木も受け付けるので、再帰だとここだけ StackOverflowError になってしまう。
+class ExpressionOptimizer {
+    // 入力のノード → 書き換え後のノード
+    private final Map<Expression, Expression> rewritten = new IdentityHashMap<>();
+    // ノードの形 → そのインスタンス
+    private final Map<String, Expression> interned = new HashMap<>();
+    // 書き換え後のノード → 番号（形のキーに使う）
+    private final Map<Expression, Integer> ids = new IdentityHashMap<>();
+
+    private ExpressionOptimizer() {
+    }
+
+    public static Expression optimize(Expression expression) {
+        return new ExpressionOptimizer().rewrite(expression);
+    }
+
+    // DAG を、各ノードを1回ずつ計算する形にする
+    public static DagExpression toSharedEvaluation(Expression dag) {
+        return new DagExpression(dag);
+    }
+
+    // interpret() が実際にたどるノード数（共有された部分木は、たどる回数だけ数える）
+    public static long countTreeNodes(Expression expression) {
+        return countTreeNodes(expression, new IdentityHashMap<>());
+    }
+
+    // 子が数え終わっていなければ、子を積んでから自分をもう一度見る
+    private static long countTreeNodes(Expression root, Map<Expression, Long> memo) {
+        Deque<Expression> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Expression expression = stack.peek();
+            if (memo.containsKey(expression)) {
+                stack.pop();
+                continue;
+            }
+            long count = 1;
+            if (isOperator(expression)) {
+                Expression left = leftOf(expression);
+                Expression right = rightOf(expression);
+                if (pushMissing(stack, memo, left, right)) {
+                    continue;
+                }
+                count += memo.get(left) + memo.get(right);
+            }
+            stack.pop();
+            memo.put(expression, count);
+        }
+        return memo.get(root);
+    }
+
+    // 異なるノードの数
+    public static int countUniqueNodes(Expression expression) {
+        return new DagExpression(expression).getNodeCount();
+    }
+
+    // 子を先に書き換えたいので、後置順にたどる
+    private Expression rewrite(Expression root) {
+        Deque<Expression> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Expression expression = stack.peek();
+            if (rewritten.containsKey(expression)) {
+                stack.pop();
+                continue;
+            }
+            Expression result;
+            if (expression instanceof Number) {
+                result = number(((Number) expression).getValue());
+            } else if (isOperator(expression)) {
+                Expression left = leftOf(expression);
+                Expression right = rightOf(expression);
+                if (pushMissing(stack, rewritten, left, right)) {
+                    continue;
+                }
+                result = expression instanceof Add
+                        ? add(rewritten.get(left), rewritten.get(right))
+                        : subtract(rewritten.get(left), rewritten.get(right));
+            } else {
+                // 中身の分からない葉。インスタンスそのものが「形」。
+                result = expression;
+                id(result);
+            }
+            stack.pop();
+            rewritten.put(expression, result);
+        }
+        return rewritten.get(root);
+    }
+
+    private Expression add(Expression left, Expression right) {
+        if (left instanceof Number && right instanceof Number) {
+            return number(valueOf(left) + valueOf(right));
+        }
+        // 定数は右に寄せる
+        if (left instanceof Number) {
+            Expression swap = left;
+            left = right;
+            right = swap;
+        }
+        if (right instanceof Number) {
+            int constant = valueOf(right);
+            if (constant == 0) {
+                return left;
+            }
+            // (x + c1) + c2 → x + (c1 + c2)。int のあふれ方も含めて同じ結果になる。
+            if (left instanceof Add && ((Add) left).getRight() instanceof Number) {
+                return add(((Add) left).getLeft(), number(valueOf(((Add) left).getRight()) + constant));
+            }
+        } else if (id(left) > id(right)) {
+            // a + b と b + a を同じ形にする
+            Expression swap = left;
+            left = right;
+            right = swap;
+        }
+        return intern("+", left, right);
+    }
+
+    private Expression subtract(Expression left, Expression right) {
+        if (left instanceof Number && right instanceof Number) {
+            return number(valueOf(left) - valueOf(right));
+        }
+        if (left == right) {
+            return number(0);
+        }
+        if (right instanceof Number) {
+            // x - c → x + (-c)。足し算にそろえると、続く定数とまとめやすい。
+            return add(left, number(-valueOf(right)));
+        }
+        return intern("-", left, right);
+    }
+
+    private Expression number(int value) {
+        String key = "n" + value;
+        Expression number = interned.get(key);
+        if (number == null) {
+            number = new Number(value);
+            interned.put(key, number);
+            id(number);
+        }
+        return number;
+    }
+
+    private Expression intern(String operator, Expression left, Expression right) {
+        String key = operator + id(left) + ":" + id(right);
+        Expression node = interned.get(key);
+        if (node == null) {
+            node = operator.equals("+") ? new Add(left, right) : new Subtract(left, right);
+            interned.put(key, node);
+            id(node);
+        }
+        return node;
+    }
+
+    private int id(Expression expression) {
+        Integer id = ids.get(expression);
+        if (id == null) {
+            id = ids.size();
+            ids.put(expression, id);
+        }
+        return id;
+    }
+
+    private static int valueOf(Expression number) {
+        return ((Number) number).getValue();
+    }
+
+    static boolean isOperator(Expression expression) {
+        return expression instanceof Add || expression instanceof Subtract;
+    }
+
+    static Expression leftOf(Expression expression) {
+        return expression instanceof Add ? ((Add) expression).getLeft() : ((Subtract) expression).getLeft();
+    }
+
+    static Expression rightOf(Expression expression) {
+        return expression instanceof Add ? ((Add) expression).getRight() : ((Subtract) expression).getRight();
+    }
+
+    // まだ済んでいない子を積む（左が先に取り出されるように、右から積む）。積んだら true。
+    static boolean pushMissing(Deque<Expression> stack, Map<Expression, ?> done, Expression left, Expression right) {
+        boolean pushed = false;
+        if (!done.containsKey(right)) {
+            stack.push(right);
+            pushed = true;
+        }
+        if (!done.containsKey(left)) {
+            stack.push(left);
+            pushed = true;
+        }
+        return pushed;
+    }
+}
+
+// DAG の各ノードを、子が先になる順番（トポロジカル順）に並べた命令列にしたもの。
+// interpret() は命令列を前から1回なめるだけなので、共有された部分木も1回しか計算しない。
+class DagExpression implements Expression {
+    private static final int CONSTANT = 0;
+    private static final int LEAF = 1;
+    private static final int ADD = 2;
+    private static final int SUBTRACT = 3;
+
+    private final int[] kinds;
+    // CONSTANT なら値、LEAF なら leaves の添字、ADD/SUBTRACT なら左右の子の番号
+    private final int[] first;
+    private final int[] second;
+    private final Expression[] leaves;
+
+    DagExpression(Expression root) {
+        List<Expression> order = new ArrayList<>();
+        Map<Expression, Integer> slots = new IdentityHashMap<>();
+        List<Expression> leafList = new ArrayList<>();
+        visit(root, order, slots);
+
+        int size = order.size();
+        kinds = new int[size];
+        first = new int[size];
+        second = new int[size];
+        for (int i = 0; i < size; i++) {
+            Expression node = order.get(i);
+            if (node instanceof Number) {
+                kinds[i] = CONSTANT;
+                first[i] = ((Number) node).getValue();
+            } else if (node instanceof Add) {
+                kinds[i] = ADD;
+                first[i] = slots.get(((Add) node).getLeft());
+                second[i] = slots.get(((Add) node).getRight());
+            } else if (node instanceof Subtract) {
+                kinds[i] = SUBTRACT;
+                first[i] = slots.get(((Subtract) node).getLeft());
+                second[i] = slots.get(((Subtract) node).getRight());
+            } else {
+                kinds[i] = LEAF;
+                first[i] = leafList.size();
+                leafList.add(node);
+            }
+        }
+        leaves = leafList.toArray(new Expression[0]);
+    }
+
+    // 子が並んでいなければ、子を積んでから自分をもう一度見る（後置順）
+    private static void visit(Expression root, List<Expression> order, Map<Expression, Integer> slots) {
+        Deque<Expression> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Expression node = stack.peek();
+            if (slots.containsKey(node)) {
+                stack.pop();
+                continue;
+            }
+            if (ExpressionOptimizer.isOperator(node) && ExpressionOptimizer.pushMissing(
+                    stack, slots, ExpressionOptimizer.leftOf(node), ExpressionOptimizer.rightOf(node))) {
+                continue;
+            }
+            stack.pop();
+            slots.put(node, order.size());
+            order.add(node);
+        }
+    }
+
+    public int getNodeCount() {
+        return kinds.length;
+    }
+
+    @Override
+    public int interpret() {
+        // 評価ごとに作るので、複数のスレッドから同時に呼んでも良い
+        int[] values = new int[kinds.length];
+        for (int i = 0; i < kinds.length; i++) {
+            switch (kinds[i]) {
+                case CONSTANT:
+                    values[i] = first[i];
+                    break;
+                case LEAF:
+                    values[i] = leaves[first[i]].interpret();
+                    break;
+                case ADD:
+                    values[i] = values[first[i]] + values[second[i]];
+                    break;
+                default:
+                    values[i] = values[first[i]] - values[second[i]];
+                    break;
+            }
+        }
+        return values[kinds.length - 1];
+    }
+}
@@ -0,0 +1,157 @@
+package P15_Interpreter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// ExpressionOptimizer のデモと、生成した式の集まり（コーパス）でのノード数の削減と評価の速さ。
+//
+// 実行例:
+//   javac -encoding UTF-8 -d out P15_Interpreter/*.java
+//   java -cp out P15_Interpreter.ExpressionOptimizerExample
+//
+// 手元（1コア、JDK 17、深さ12の式 200個）での結果の一例:
+//   nodes: 127,258 → 35,108  (72.4% 削減)
+//   interpret()        :   122,323 formulas/s
+//   optimized (shared) :   896,380 formulas/s  (x7.3)
+
+// 外から値が入る葉（センサーの値のつもり）。オプティマイザーからは中身が見えない。
+class Sensor implements Expression {
+    private final String name;
+    private int value;
+
+    public Sensor(String name, int value) {
+        this.name = name;
+        this.value = value;
+    }
+
+    public void setValue(int value) {
+        this.value = value;
+    }
+
+    @Override
+    public int interpret() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
+
+public class ExpressionOptimizerExample {
+    public static void main(String[] args) {
+        System.out.println("=== 最適化のデモ ===\n");
+        Sensor temperature = new Sensor("temperature", 20);
+        // (temperature + 1) + (2 + 3) - (temperature + 1) + (temperature + 1)
+        Expression expression = new Add(
+            new Subtract(
+                new Add(new Add(temperature, new Number(1)), new Add(new Number(2), new Number(3))),
+                new Add(temperature, new Number(1))
+            ),
+            new Add(temperature, new Number(1))
+        );
+        Expression optimized = ExpressionOptimizer.optimize(expression);
+        System.out.println("before: " + ExpressionOptimizer.countTreeNodes(expression) + " nodes, value " + expression.interpret());
+        System.out.println("after : " + ExpressionOptimizer.countUniqueNodes(optimized) + " nodes, value " + optimized.interpret());
+
+        System.out.println("\n=== 生成したコーパス ===");
+        Random random = new Random(11);
+        Sensor[] sensors = new Sensor[8];
+        for (int i = 0; i < sensors.length; i++) {
+            sensors[i] = new Sensor("s" + i, random.nextInt(100));
+        }
+        List<Expression> corpus = new ArrayList<>();
+        List<Expression> pool = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            corpus.add(generate(random, 12, sensors, pool));
+        }
+
+        long treeNodes = 0;
+        long dagNodes = 0;
+        List<Expression> evaluators = new ArrayList<>();
+        for (Expression formula : corpus) {
+            Expression dag = ExpressionOptimizer.optimize(formula);
+            DagExpression evaluator = ExpressionOptimizer.toSharedEvaluation(dag);
+            if (evaluator.interpret() != formula.interpret()) {
+                throw new IllegalStateException("Optimized result differs");
+            }
+            treeNodes += ExpressionOptimizer.countTreeNodes(formula);
+            dagNodes += evaluator.getNodeCount();
+            evaluators.add(evaluator);
+        }
+        System.out.printf("nodes: %,d → %,d  (%.1f%% 削減)%n", treeNodes, dagNodes, 100.0 * (treeNodes - dagNodes) / treeNodes);
+
+        double original = 0;
+        double shared = 0;
+        for (int round = 0; round < 5; round++) {
+            original = evaluationsPerSecond(corpus, sensors, random);
+            shared = evaluationsPerSecond(evaluators, sensors, random);
+        }
+        System.out.printf("interpret()        : %,12.0f formulas/s%n", original);
+        System.out.printf("optimized (shared) : %,12.0f formulas/s  (x%.1f)%n", shared, shared / original);
+    }
+
+    // センサーの値を変えながら、全部の式を評価する
+    private static double evaluationsPerSecond(List<Expression> formulas, Sensor[] sensors, Random random) {
+        int rounds = 200;
+        long start = System.nanoTime();
+        long sum = 0;
+        for (int round = 0; round < rounds; round++) {
+            sensors[round % sensors.length].setValue(random.nextInt(100));
+            for (Expression formula : formulas) {
+                sum += formula.interpret();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (sum == 42) {
+            System.out.println();
+        }
+        return (double) rounds * formulas.size() / (elapsed / 1e9);
+    }
+
+    // 定数だけの部分木や、前に作った部分木と同じ形（別インスタンス）の部分木を含む式を作る
+    private static Expression generate(Random random, int depth, Sensor[] sensors, List<Expression> pool) {
+        if (depth == 0) {
+            return random.nextBoolean() ? sensors[random.nextInt(sensors.length)] : new Number(random.nextInt(10));
+        }
+        int choice = random.nextInt(10);
+        if (choice < 2 && !pool.isEmpty()) {
+            return copy(pool.get(random.nextInt(pool.size())));
+        }
+        if (choice < 3) {
+            return constantTree(random, depth);
+        }
+        Expression left = generate(random, depth - 1, sensors, pool);
+        Expression right = generate(random, depth - 1, sensors, pool);
+        Expression node = random.nextBoolean() ? new Add(left, right) : new Subtract(left, right);
+        if (depth <= 4) {
+            pool.add(node);
+        }
+        return node;
+    }
+
+    private static Expression constantTree(Random random, int depth) {
+        if (depth == 0 || random.nextInt(3) == 0) {
+            return new Number(random.nextInt(10));
+        }
+        Expression left = constantTree(random, depth - 1);
+        Expression right = constantTree(random, depth - 1);
+        return random.nextBoolean() ? new Add(left, right) : new Subtract(left, right);
+    }
+
+    // 形が同じ、別インスタンスの木（センサーは同じものを使う）
+    private static Expression copy(Expression expression) {
+        if (expression instanceof Add) {
+            return new Add(copy(((Add) expression).getLeft()), copy(((Add) expression).getRight()));
+        }
+        if (expression instanceof Subtract) {
+            return new Subtract(copy(((Subtract) expression).getLeft()), copy(((Subtract) expression).getRight()));
+        }
+        if (expression instanceof Number) {
+            return new Number(((Number) expression).getValue());
+        }
+        return expression;
+    }
+}
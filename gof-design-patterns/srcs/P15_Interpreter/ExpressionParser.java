@@ -0,0 +1,267 @@
+package P15_Interpreter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// 文字列の式 "5 + 3 - 2" から Expression の木を作るパーサーと、パース結果のキャッシュ。
+//
+// 文法（+ と - は左結合。"10 - 3 + 2" は ((10 - 3) + 2)）:
+//   expression := term (('+' | '-') term)*
+//   term       := NUMBER | '(' expression ')' | '-' term
+//
+// 1. 字句解析は、1文字ずつ前から読むだけ。読み戻しはしない。
+// 2. 構文解析は、次のトークンを1つ見るだけで進む道が決まる（LL(1)）。なので、やり直し（バックトラック）は起きない。
+// 3. 単項マイナス "-x" は Subtract(Number(0), x) にする。
+// 4. 括弧と単項マイナスは再帰で読むので、入れ子は MAX_NESTING 段までにする
+//    （それ以上は StackOverflowError になる前に IllegalArgumentException にする）。
+
+// 1. パーサー
+class ExpressionParser {
+    static final int MAX_NESTING = 1_000;
+
+    private enum TokenType {
+        NUMBER, PLUS, MINUS, LEFT_PAREN, RIGHT_PAREN, END
+    }
+
+    private final String source;
+    private int position;
+    // 先読みしている1トークン
+    private TokenType tokenType;
+    private int tokenValue;
+    private int tokenStart;
+    // 今の括弧・単項マイナスの入れ子の深さ
+    private int nesting;
+
+    private ExpressionParser(String source) {
+        this.source = source;
+    }
+
+    public static Expression parse(String source) {
+        ExpressionParser parser = new ExpressionParser(source);
+        parser.nextToken();
+        Expression expression = parser.parseExpression();
+        if (parser.tokenType != TokenType.END) {
+            throw parser.error("Unexpected token");
+        }
+        return expression;
+    }
+
+    private Expression parseExpression() {
+        Expression left = parseTerm();
+        while (tokenType == TokenType.PLUS || tokenType == TokenType.MINUS) {
+            TokenType operator = tokenType;
+            nextToken();
+            Expression right = parseTerm();
+            left = operator == TokenType.PLUS ? new Add(left, right) : new Subtract(left, right);
+        }
+        return left;
+    }
+
+    private Expression parseTerm() {
+        switch (tokenType) {
+            case NUMBER: {
+                Expression number = new Number(tokenValue);
+                nextToken();
+                return number;
+            }
+            case LEFT_PAREN: {
+                enterNesting();
+                nextToken();
+                Expression inner = parseExpression();
+                if (tokenType != TokenType.RIGHT_PAREN) {
+                    throw error("')' expected");
+                }
+                nextToken();
+                nesting--;
+                return inner;
+            }
+            case MINUS: {
+                enterNesting();
+                nextToken();
+                Expression negated = new Subtract(new Number(0), parseTerm());
+                nesting--;
+                return negated;
+            }
+            default:
+                throw error("Number or '(' expected");
+        }
+    }
+
+    private void enterNesting() {
+        if (++nesting > MAX_NESTING) {
+            throw error("Nesting deeper than " + MAX_NESTING);
+        }
+    }
+
+    // 字句解析。空白を読み飛ばして、次のトークンを1つ読む。
+    private void nextToken() {
+        while (position < source.length() && Character.isWhitespace(source.charAt(position))) {
+            position++;
+        }
+        tokenStart = position;
+        if (position == source.length()) {
+            tokenType = TokenType.END;
+            return;
+        }
+        char c = source.charAt(position);
+        switch (c) {
+            case '+':
+                tokenType = TokenType.PLUS;
+                position++;
+                return;
+            case '-':
+                tokenType = TokenType.MINUS;
+                position++;
+                return;
+            case '(':
+                tokenType = TokenType.LEFT_PAREN;
+                position++;
+                return;
+            case ')':
+                tokenType = TokenType.RIGHT_PAREN;
+                position++;
+                return;
+            default:
+                break;
+        }
+        if (c < '0' || c > '9') {
+            throw error("Unexpected character '" + c + "'");
+        }
+        long value = 0;
+        while (position < source.length()) {
+            char digit = source.charAt(position);
+            if (digit < '0' || digit > '9') {
+                break;
+            }
+            value = value * 10 + (digit - '0');
+            if (value > Integer.MAX_VALUE) {
+                throw error("Number too large");
+            }
+            position++;
+        }
+        tokenType = TokenType.NUMBER;
+        tokenValue = (int) value;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + tokenStart + ": " + source);
+    }
+}
+
+// 2. パース結果のキャッシュ
+// 同じ式（空白を除いて同じ文字列）なら、パースせずに前に作った木を返す。
+// Expression の木は変更されないので、共有しても問題ない。
+// 上限を超えたら、一番長く使われていないものから捨てる（LRU）。
+//
+// 正規化は、式が短いとパースと同じくらいコストがかかる。
+// なので、受け取った文字列そのまま → 木 の別名も覚えておき、まずはそちらで探す。
+// 別名は、正規化した式とは別の LRU（上限は同じ件数）に入れるので、覚えられる式の数は減らない。
+// パースエラーの位置は、正規化する前の（呼び出し側が渡した）文字列での位置にする。
+class ExpressionCache {
+    private final Map<String, Expression> cache;
+    // 正規化する前の文字列 → 木
+    private final Map<String, Expression> aliases;
+    private long hits;
+    private long misses;
+
+    public ExpressionCache(int maxEntries) {
+        this.cache = lruMap(maxEntries);
+        this.aliases = lruMap(maxEntries);
+    }
+
+    private static Map<String, Expression> lruMap(int maxEntries) {
+        // accessOrder = true にすると、get() した順に並び替わる
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Expression> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public synchronized Expression get(String source) {
+        Expression expression = aliases.get(source);
+        if (expression != null) {
+            hits++;
+            return expression;
+        }
+        String key = normalize(source);
+        boolean alias = !key.equals(source);
+        expression = cache.get(key);
+        if (expression != null) {
+            hits++;
+            if (alias) {
+                aliases.put(source, expression);
+            }
+            return expression;
+        }
+        misses++;
+        try {
+            expression = ExpressionParser.parse(key);
+        } catch (IllegalArgumentException e) {
+            // 元の文字列でパースし直して、そちらの位置でエラーにする
+            ExpressionParser.parse(source);
+            throw e;
+        }
+        cache.put(key, expression);
+        if (alias) {
+            aliases.put(source, expression);
+        }
+        return expression;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized double getHitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    // 空白を取り除く。"5+3" と "5 + 3" は同じ式として扱う。
+    // 数字と数字の間の空白（"1 2"）は不正な式なので、1つだけ残してパースエラーにする。
+    static String normalize(String source) {
+        // 空白が無ければ、そのまま使う（コピーしない）
+        int first = 0;
+        while (first < source.length() && !isWhitespace(source.charAt(first))) {
+            first++;
+        }
+        if (first == source.length()) {
+            return source;
+        }
+        char[] normalized = new char[source.length()];
+        source.getChars(0, first, normalized, 0);
+        int length = first;
+        boolean skippedSpace = false;
+        for (int i = first; i < source.length(); i++) {
+            char c = source.charAt(i);
+            if (isWhitespace(c)) {
+                skippedSpace = true;
+                continue;
+            }
+            if (skippedSpace && length > 0 && isDigit(normalized[length - 1]) && isDigit(c)) {
+                normalized[length++] = ' ';
+            }
+            skippedSpace = false;
+            normalized[length++] = c;
+        }
+        return new String(normalized, 0, length);
+    }
+
+    // ASCII は Character.isWhitespace() を呼ばずに判定する
+    private static boolean isWhitespace(char c) {
+        if (c < 0x80) {
+            return c == ' ' || (c >= 0x09 && c <= 0x0d) || (c >= 0x1c && c <= 0x1f);
+        }
+        return Character.isWhitespace(c);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,127 @@
+package P15_Interpreter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// ExpressionParser と ExpressionCache のデモと、パースの速さ・キャッシュのヒット率の計測。
+//
+// 実行例:
+//   javac -encoding UTF-8 -d out P15_Interpreter/*.java
+//   java -cp out P15_Interpreter.ExpressionParserExample
+//
+// 手元（1コア、JDK 17、平均約128文字の式 20,000 種類）での結果の一例（キャッシュは interpret() を含めず、木を得るまで）:
+//   parse: 約 92 MB/s
+//   毎回パース     : 1.09 M parses/s
+//   上限  2,000 件 : 1.07 M lookups/s  hit ratio 67.7%
+//   上限 10,000 件 : 1.84 M lookups/s  hit ratio 91.0%
+//   上限 40,000 件 : 5.17 M lookups/s  hit ratio 98.0%
+// この程度の短い式だとパース自体が安いので、ヒット率が低いと、外れた分のパースとキャッシュの出し入れで差が消える。
+// 式が長いほど、また同じ式が繰り返されるほど、キャッシュが効く。
+
+public class ExpressionParserExample {
+    public static void main(String[] args) {
+        System.out.println("=== 文字列の式をパースする ===\n");
+        for (String source : new String[] {"5 + 3 - 2", "10 - 3 + 2", "10 - (3 + 2)", "-4 + 10"}) {
+            Expression expression = ExpressionParser.parse(source);
+            System.out.println(source + " = " + expression.interpret());
+        }
+        try {
+            ExpressionParser.parse("1 + * 2");
+        } catch (IllegalArgumentException e) {
+            System.out.println("エラー: " + e.getMessage());
+        }
+        try {
+            // 位置は、キャッシュが正規化する前の文字列で数える
+            new ExpressionCache(10).get("1  +  *  2");
+        } catch (IllegalArgumentException e) {
+            System.out.println("エラー: " + e.getMessage());
+        }
+        try {
+            ExpressionParser.parse("(".repeat(100_000) + "1" + ")".repeat(100_000));
+        } catch (IllegalArgumentException e) {
+            System.out.println("エラー: " + e.getMessage().substring(0, 40) + "...");
+        }
+
+        Random random = new Random(7);
+        List<String> corpus = new ArrayList<>();
+        long bytes = 0;
+        for (int i = 0; i < 20_000; i++) {
+            String formula = randomFormula(random, 3);
+            corpus.add(formula);
+            bytes += formula.getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        System.out.println("\n=== パースの速さ（" + corpus.size() + " 式, " + bytes + " bytes） ===");
+        double megabytesPerSecond = 0;
+        for (int round = 0; round < 10; round++) {
+            long start = System.nanoTime();
+            long trees = 0;
+            for (String formula : corpus) {
+                trees += ExpressionParser.parse(formula) != null ? 1 : 0;
+            }
+            long elapsed = System.nanoTime() - start;
+            megabytesPerSecond = bytes / (elapsed / 1e9) / (1024 * 1024);
+            if (trees != corpus.size()) {
+                throw new IllegalStateException();
+            }
+        }
+        System.out.printf("parse: %.1f MB/s%n", megabytesPerSecond);
+
+        // よく使われる式ほど何度も来る（偏りのある）ワークロード
+        int lookups = 1_000_000;
+        int[] workload = new int[lookups];
+        for (int i = 0; i < lookups; i++) {
+            workload[i] = (int) (corpus.size() * Math.pow(random.nextDouble(), 8));
+        }
+
+        // interpret() は含めず、式の木を手に入れるまでを測る
+        System.out.println("\n=== キャッシュ（" + lookups + " 回の取得） ===");
+        double withoutCache = 0;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int index : workload) {
+                if (ExpressionParser.parse(corpus.get(index)) == null) {
+                    throw new IllegalStateException();
+                }
+            }
+            withoutCache = lookups / ((System.nanoTime() - start) / 1e9) / 1e6;
+        }
+        System.out.printf("毎回パース         : %.2f M parses/s%n", withoutCache);
+
+        for (int maxEntries : new int[] {2_000, 10_000, 40_000}) {
+            ExpressionCache cache = null;
+            double withCache = 0;
+            for (int round = 0; round < 3; round++) {
+                cache = new ExpressionCache(maxEntries);
+                long start = System.nanoTime();
+                for (int index : workload) {
+                    if (cache.get(corpus.get(index)) == null) {
+                        throw new IllegalStateException();
+                    }
+                }
+                withCache = lookups / ((System.nanoTime() - start) / 1e9) / 1e6;
+            }
+            System.out.printf("上限 %,6d 件      : %.2f M lookups/s,  hit ratio %.1f%% (hits %d, misses %d)%n",
+                    maxEntries, withCache, cache.getHitRatio() * 100, cache.getHits(), cache.getMisses());
+        }
+    }
+
+    // 深さ depth までのランダムな式
+    private static String randomFormula(Random random, int depth) {
+        StringBuilder formula = new StringBuilder();
+        int terms = 2 + random.nextInt(6);
+        for (int i = 0; i < terms; i++) {
+            if (i > 0) {
+                formula.append(random.nextBoolean() ? " + " : " - ");
+            }
+            if (depth > 0 && random.nextInt(4) == 0) {
+                formula.append('(').append(randomFormula(random, depth - 1)).append(')');
+            } else {
+                formula.append(random.nextInt(10_000));
+            }
+        }
+        return formula.toString();
+    }
+}
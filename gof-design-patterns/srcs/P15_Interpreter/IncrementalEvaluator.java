@@ -0,0 +1,210 @@
+package P15_Interpreter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// 入力の一部だけが変わったときに、影響のあるノードだけを計算し直す評価器（表計算ソフトのセルのようなもの）。
+//
+// 各ノードの値を覚えておき、子 → 親のリンクを持っておく。
+// set() で変数の値を変えると、その変数の親に「計算し直す」印（dirty）を付ける。
+// interpret() では、印の付いたノードを子が先になる順番（トポロジカル順）に計算し直し、
+// 値が本当に変わったときだけ、さらにその親に印を付ける。値が変わらなければ、そこで伝わるのが止まる。
+// 印の付いていないノードは、覚えている値をそのまま使う。
+//
+// 変数の値は、必ずこの評価器の set() で変えること（Variable.setValue() を直接呼ぶと、変わったことが分からない）。
+// Variable 以外の中身の分からない葉は、値が変わったら invalidate() で知らせる。
+// DAG で共有された部分木は1つのノードとして扱う。スレッドセーフではない。
+class IncrementalEvaluator implements Expression {
+    private static final int CONSTANT = 0;
+    private static final int LEAF = 1;
+    private static final int ADD = 2;
+    private static final int SUBTRACT = 3;
+
+    // ノードはトポロジカル順に並べる（子の番号 < 親の番号）
+    private final int[] kinds;
+    // LEAF なら leaves の添字、ADD/SUBTRACT なら左右の子の番号
+    private final int[] first;
+    private final int[] second;
+    private final Expression[] leaves;
+    private final int[] values;
+    // ノード i の親は parents[parentStart[i] .. parentStart[i + 1] - 1]
+    private final int[] parentStart;
+    private final int[] parents;
+    // 葉（Variable を含む）→ ノードの番号
+    private final Map<Expression, Integer> leafNodes = new IdentityHashMap<>();
+
+    private final BitSet dirty = new BitSet();
+    private long recomputedCount;
+
+    public IncrementalEvaluator(Expression root) {
+        List<Expression> order = topologicalOrder(root);
+        Map<Expression, Integer> slots = new IdentityHashMap<>();
+        for (int i = 0; i < order.size(); i++) {
+            slots.put(order.get(i), i);
+        }
+
+        int size = order.size();
+        kinds = new int[size];
+        first = new int[size];
+        second = new int[size];
+        values = new int[size];
+        List<Expression> leafList = new ArrayList<>();
+        int[] parentCounts = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            Expression node = order.get(i);
+            if (node instanceof Number) {
+                kinds[i] = CONSTANT;
+                values[i] = ((Number) node).getValue();
+            } else if (node instanceof Add || node instanceof Subtract) {
+                kinds[i] = node instanceof Add ? ADD : SUBTRACT;
+                first[i] = slots.get(left(node));
+                second[i] = slots.get(right(node));
+                parentCounts[first[i]]++;
+                if (second[i] != first[i]) {
+                    parentCounts[second[i]]++;
+                }
+            } else {
+                kinds[i] = LEAF;
+                first[i] = leafList.size();
+                leafList.add(node);
+                leafNodes.put(node, i);
+            }
+        }
+        leaves = leafList.toArray(new Expression[0]);
+
+        // 親のリストを1本の配列に詰める
+        parentStart = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            parentStart[i + 1] = parentStart[i] + parentCounts[i];
+        }
+        parents = new int[parentStart[size]];
+        int[] filled = new int[size];
+        for (int i = 0; i < size; i++) {
+            if (kinds[i] == ADD || kinds[i] == SUBTRACT) {
+                parents[parentStart[first[i]] + filled[first[i]]++] = i;
+                if (second[i] != first[i]) {
+                    parents[parentStart[second[i]] + filled[second[i]]++] = i;
+                }
+            }
+        }
+
+        // 最初は全部を計算する
+        for (int i = 0; i < size; i++) {
+            compute(i);
+        }
+    }
+
+    // 再帰せずに、子が先になる順番に並べる
+    private static List<Expression> topologicalOrder(Expression root) {
+        List<Expression> order = new ArrayList<>();
+        Map<Expression, Boolean> placed = new IdentityHashMap<>();
+        Deque<Expression> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Expression node = stack.peek();
+            if (placed.containsKey(node)) {
+                stack.pop();
+                continue;
+            }
+            boolean ready = true;
+            if (node instanceof Add || node instanceof Subtract) {
+                for (Expression child : new Expression[] {right(node), left(node)}) {
+                    if (!placed.containsKey(child)) {
+                        stack.push(child);
+                        ready = false;
+                    }
+                }
+            }
+            if (ready) {
+                stack.pop();
+                placed.put(node, Boolean.TRUE);
+                order.add(node);
+            }
+        }
+        return order;
+    }
+
+    private static Expression left(Expression node) {
+        return node instanceof Add ? ((Add) node).getLeft() : ((Subtract) node).getLeft();
+    }
+
+    private static Expression right(Expression node) {
+        return node instanceof Add ? ((Add) node).getRight() : ((Subtract) node).getRight();
+    }
+
+    // 変数の値を変える。同じ値なら何もしない。
+    public void set(Variable variable, int value) {
+        Integer node = leafNodes.get(variable);
+        if (node == null) {
+            throw new IllegalArgumentException("Variable is not part of this expression: " + variable);
+        }
+        variable.setValue(value);
+        if (values[node] != value) {
+            values[node] = value;
+            markParents(node);
+        }
+    }
+
+    // Variable 以外の葉の値が変わったことを知らせる
+    public void invalidate(Expression leaf) {
+        Integer node = leafNodes.get(leaf);
+        if (node == null) {
+            throw new IllegalArgumentException("Leaf is not part of this expression: " + leaf);
+        }
+        dirty.set(node);
+    }
+
+    @Override
+    public int interpret() {
+        // 親の番号は子より大きいので、前から順に取り出せば、子を計算し終えてから親を計算することになる
+        for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1)) {
+            recomputedCount++;
+            if (compute(i)) {
+                markParents(i);
+            }
+        }
+        dirty.clear();
+        return values[values.length - 1];
+    }
+
+    private void markParents(int node) {
+        for (int p = parentStart[node]; p < parentStart[node + 1]; p++) {
+            dirty.set(parents[p]);
+        }
+    }
+
+    // ノードの値を計算し直し、変わったかどうかを返す
+    private boolean compute(int i) {
+        int value;
+        switch (kinds[i]) {
+            case CONSTANT:
+                return false;
+            case LEAF:
+                value = leaves[first[i]].interpret();
+                break;
+            case ADD:
+                value = values[first[i]] + values[second[i]];
+                break;
+            default:
+                value = values[first[i]] - values[second[i]];
+                break;
+        }
+        boolean changed = value != values[i];
+        values[i] = value;
+        return changed;
+    }
+
+    public int getNodeCount() {
+        return values.length;
+    }
+
+    // これまでに interpret() で計算し直したノードの数
+    public long getRecomputedCount() {
+        return recomputedCount;
+    }
+}
@@ -0,0 +1,89 @@
+package P15_Interpreter;
+
+import java.util.Random;
+
+// IncrementalEvaluator のデモと、入力の 1% だけが変わるときの、全部計算し直す場合との比べ。
+//
+// 実行例:
+//   javac -encoding UTF-8 -d out P15_Interpreter/*.java
+//   java -cp out P15_Interpreter.IncrementalEvaluatorExample
+//
+// 手元（1コア、JDK 17）での結果の一例:
+//   nodes                  : 199,999（入力 100,000 個の釣り合った木）
+//   full evaluation        :    2,055.7 us/eval, 199,999 nodes/eval
+//   incremental evaluation :      345.4 us/eval,   6,836 nodes/eval  (x6.0)
+// 計算し直すノードは約 1/30 だが、飛び飛びのノードを触るのでキャッシュミスが多く、時間の差はそこまで開かない。
+
+public class IncrementalEvaluatorExample {
+    public static void main(String[] args) {
+        System.out.println("=== 変わったところだけ計算し直す ===\n");
+        Variable a = new Variable("a");
+        Variable b = new Variable("b");
+        Variable c = new Variable("c");
+        // (a + b) - (b + c)
+        IncrementalEvaluator sheet = new IncrementalEvaluator(new Subtract(new Add(a, b), new Add(b, c)));
+        sheet.set(a, 10);
+        sheet.set(b, 20);
+        sheet.set(c, 3);
+        System.out.println("a=10, b=20, c=3 : " + sheet.interpret() + "  (recomputed " + sheet.getRecomputedCount() + ")");
+        long before = sheet.getRecomputedCount();
+        sheet.set(c, 5);
+        System.out.println("c=5             : " + sheet.interpret()
+                + "  (recomputed " + (sheet.getRecomputedCount() - before) + " of " + sheet.getNodeCount() + " nodes)");
+
+        int inputs = 100_000;
+        System.out.println("\n=== 入力 " + String.format("%,d", inputs) + " 個、1回に 1% を変える ===");
+        Random random = new Random(13);
+        Variable[] variables = new Variable[inputs];
+        for (int i = 0; i < inputs; i++) {
+            variables[i] = new Variable("x" + i);
+            variables[i].setValue(random.nextInt(1000));
+        }
+        Expression formula = balanced(random, variables, 0, inputs);
+        IncrementalEvaluator incremental = new IncrementalEvaluator(formula);
+        PostfixProgram full = PostfixProgram.lower(formula);
+
+        int rounds = 200;
+        int changes = inputs / 100;
+        long fullNanos = 0;
+        long incrementalNanos = 0;
+        long recomputed = 0;
+        for (int warmup = 0; warmup < 2; warmup++) {
+            fullNanos = 0;
+            incrementalNanos = 0;
+            long recomputedBefore = incremental.getRecomputedCount();
+            for (int round = 0; round < rounds; round++) {
+                for (int i = 0; i < changes; i++) {
+                    incremental.set(variables[random.nextInt(inputs)], random.nextInt(1000));
+                }
+                long start = System.nanoTime();
+                int expected = full.interpret();
+                fullNanos += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                int actual = incremental.interpret();
+                incrementalNanos += System.nanoTime() - start;
+                if (actual != expected) {
+                    throw new IllegalStateException("Incremental result differs");
+                }
+            }
+            recomputed = incremental.getRecomputedCount() - recomputedBefore;
+        }
+        System.out.printf("nodes                  : %,d%n", incremental.getNodeCount());
+        System.out.printf("full evaluation        : %,10.1f us/eval, %,d nodes/eval%n",
+                fullNanos / 1e3 / rounds, incremental.getNodeCount());
+        System.out.printf("incremental evaluation : %,10.1f us/eval, %,d nodes/eval  (x%.1f)%n",
+                incrementalNanos / 1e3 / rounds, recomputed / rounds, (double) fullNanos / incrementalNanos);
+    }
+
+    // 変数を葉に持つ、釣り合った木
+    private static Expression balanced(Random random, Variable[] variables, int from, int to) {
+        if (to - from == 1) {
+            return variables[from];
+        }
+        int middle = (from + to) >>> 1;
+        Expression left = balanced(random, variables, from, middle);
+        Expression right = balanced(random, variables, middle, to);
+        return random.nextBoolean() ? new Add(left, right) : new Subtract(left, right);
+    }
+}
@@ -19,6 +19,11 @@ class Number implements Expression {
         this.number = number;
     }
     
+    // コンパイラーなど、木の中身を見たい側のため（パッケージ内だけに公開）
+    int getValue() {
+        return number;
+    }
+    
     @Override
     public int interpret() {
         return number;
@@ -35,6 +40,14 @@ class Add implements Expression {
         this.rightExpression = right;
     }
     
+    Expression getLeft() {
+        return leftExpression;
+    }
+    
+    Expression getRight() {
+        return rightExpression;
+    }
+    
     @Override
     public int interpret() {
         return leftExpression.interpret() + rightExpression.interpret();
@@ -51,12 +64,49 @@ class Subtract implements Expression {
         this.rightExpression = right;
     }
     
+    Expression getLeft() {
+        return leftExpression;
+    }
+    
+    Expression getRight() {
+        return rightExpression;
+    }
+    
     @Override
     public int interpret() {
         return leftExpression.interpret() - rightExpression.interpret();
     }
 }
 
+// 変数（TerminalExpression）。値は外からあとで入れる。
+// 同じ名前でも別のインスタンスは別の変数として扱う。
+class Variable implements Expression {
+    private final String name;
+    private int value;
+
+    public Variable(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setValue(int value) {
+        this.value = value;
+    }
+
+    @Override
+    public int interpret() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
+
 // 5. クライアントコード
 public class InterpreterPatternDemo {
     public static void main(String[] args) {
@@ -0,0 +1,130 @@
+package P15_Interpreter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+// Expression の木を、後置記法（逆ポーランド記法）の int[] の命令列にしたもの。
+//
+//     (5 + x) - 2  →  CONSTANT 5, LEAF 0, ADD, CONSTANT 2, SUBTRACT
+//
+// 木の interpret() は再帰なので、100万項の 1 + 2 + ... + n のような深い木ではスタックがあふれる。
+// また、ノードがヒープのあちこちにあるので、たどるたびにキャッシュミスが起きる。
+// ここでは、木を命令列にする（lower）のも、命令列を実行する（interpret）のもループで行うので、
+// 木の深さに上限はない。命令列は1本の配列なので、前から順に読むだけになる。
+//
+// interpret() は作っておいたスタックを使い回すので、評価ごとにメモリを確保しない。
+// その代わり、1つの PostfixProgram を複数のスレッドから同時に評価してはいけない。
+// Number, Add, Subtract 以外のノード（Variable など）は葉として、その interpret() を呼ぶ。
+// DAG で共有されている部分木は、木と同じく出てくるたびに命令になる。
+class PostfixProgram implements Expression {
+    static final int CONSTANT = 0;
+    static final int LEAF = 1;
+    static final int ADD = 2;
+    static final int SUBTRACT = 3;
+
+    // CONSTANT と LEAF は次の要素がオペランド（値、leaves の添字）、ADD と SUBTRACT は1要素
+    private final int[] code;
+    private final Expression[] leaves;
+    private final int[] stack;
+
+    private PostfixProgram(int[] code, Expression[] leaves, int maxStack) {
+        this.code = code;
+        this.leaves = leaves;
+        this.stack = new int[Math.max(1, maxStack)];
+    }
+
+    public static PostfixProgram lower(Expression expression) {
+        int[] code = new int[16];
+        int length = 0;
+        List<Expression> leaves = new ArrayList<>();
+        int depth = 0;
+        int maxDepth = 0;
+
+        // 後置順でたどるための作業用スタック。演算子は、子を全部積んだあとに出す印として積む。
+        Deque<Object> pending = new ArrayDeque<>();
+        pending.push(expression);
+        while (!pending.isEmpty()) {
+            Object item = pending.pop();
+            if (code.length - length < 2) {
+                code = Arrays.copyOf(code, code.length * 2);
+            }
+            if (item instanceof Integer) {
+                code[length++] = (Integer) item;
+                depth--;
+            } else if (item instanceof Add) {
+                pending.push(ADD);
+                pending.push(((Add) item).getRight());
+                pending.push(((Add) item).getLeft());
+            } else if (item instanceof Subtract) {
+                pending.push(SUBTRACT);
+                pending.push(((Subtract) item).getRight());
+                pending.push(((Subtract) item).getLeft());
+            } else {
+                if (item instanceof Number) {
+                    code[length++] = CONSTANT;
+                    code[length++] = ((Number) item).getValue();
+                } else {
+                    code[length++] = LEAF;
+                    code[length++] = leaves.size();
+                    leaves.add((Expression) item);
+                }
+                depth++;
+                maxDepth = Math.max(maxDepth, depth);
+            }
+        }
+        return new PostfixProgram(Arrays.copyOf(code, length), leaves.toArray(new Expression[0]), maxDepth);
+    }
+
+    @Override
+    public int interpret() {
+        int[] code = this.code;
+        int[] stack = this.stack;
+        int top = -1;
+        int pc = 0;
+        while (pc < code.length) {
+            switch (code[pc]) {
+                case CONSTANT:
+                    stack[++top] = code[pc + 1];
+                    pc += 2;
+                    break;
+                case LEAF:
+                    stack[++top] = leaves[code[pc + 1]].interpret();
+                    pc += 2;
+                    break;
+                case ADD:
+                    top--;
+                    stack[top] += stack[top + 1];
+                    pc++;
+                    break;
+                default:
+                    top--;
+                    stack[top] -= stack[top + 1];
+                    pc++;
+                    break;
+            }
+        }
+        return stack[0];
+    }
+
+    // 命令列の長さ（int の個数）
+    public int getCodeLength() {
+        return code.length;
+    }
+
+    // 評価中にスタックに積まれる値の最大数
+    public int getMaxStack() {
+        return stack.length;
+    }
+
+    // ColumnarEvaluator など、命令列を別の形で実行するもの向け
+    int[] getCode() {
+        return code;
+    }
+
+    Expression[] getLeaves() {
+        return leaves;
+    }
+}
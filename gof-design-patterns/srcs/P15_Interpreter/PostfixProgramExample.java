@@ -0,0 +1,102 @@
+package P15_Interpreter;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+// PostfixProgram のデモ。深い式でもスタックがあふれないことと、木をたどる interpret() との速さ比べ。
+//
+// 実行例:
+//   javac -encoding UTF-8 -d out P15_Interpreter/*.java
+//   java -cp out P15_Interpreter.PostfixProgramExample
+//
+// 手元（1コア、JDK 17）での結果の一例:
+//   100万項の鎖: interpret() は StackOverflowError、postfix は -500000（code 3,000,002 ints, stack 2）
+//   allocated in 100 evaluations: 816 bytes（計測の呼び出し自体の分。評価の回数を増やしても増えない）
+//       100 nodes : tree walk    2,106,635 evals/s,  postfix    3,568,710 evals/s  (x1.7)
+//     10000 nodes : tree walk        7,686 evals/s,  postfix       22,993 evals/s  (x3.0)
+//   1000000 nodes : tree walk           67 evals/s,  postfix          103 evals/s  (x1.5)
+
+public class PostfixProgramExample {
+    public static void main(String[] args) {
+        System.out.println("=== 後置記法の命令列 ===\n");
+        Variable x = new Variable("x");
+        // (5 + x) - 2
+        PostfixProgram small = PostfixProgram.lower(new Subtract(new Add(new Number(5), x), new Number(2)));
+        x.setValue(10);
+        System.out.println("(5 + x) - 2, x = 10 : " + small.interpret()
+                + "  (code " + small.getCodeLength() + " ints, stack " + small.getMaxStack() + ")");
+
+        System.out.println("\n=== 100万項の 1 - 2 + 3 - 4 ... ===");
+        int terms = 1_000_000;
+        Expression chain = new Number(0);
+        long expected = 0;
+        for (int i = 1; i <= terms; i++) {
+            if (i % 2 == 1) {
+                chain = new Add(chain, new Number(i));
+                expected += i;
+            } else {
+                chain = new Subtract(chain, new Number(i));
+                expected -= i;
+            }
+        }
+        try {
+            System.out.println("interpret()  : " + chain.interpret());
+        } catch (StackOverflowError e) {
+            System.out.println("interpret()  : StackOverflowError");
+        }
+        PostfixProgram program = PostfixProgram.lower(chain);
+        System.out.println("postfix      : " + program.interpret() + "  (expected " + expected
+                + ", code " + program.getCodeLength() + " ints, stack " + program.getMaxStack() + ")");
+
+        // 評価ごとのメモリ確保がないこと
+        long before = allocatedBytes();
+        for (int i = 0; i < 100; i++) {
+            program.interpret();
+        }
+        long after = allocatedBytes();
+        System.out.println("allocated in 100 evaluations: " + (before < 0 ? "n/a" : (after - before) + " bytes"));
+
+        System.out.println("\n=== ノード数ごとの評価の速さ ===");
+        Random random = new Random(9);
+        for (int nodes : new int[] {100, 10_000, 1_000_000}) {
+            Expression tree = ExpressionCompilerExample.randomTree(random, nodes);
+            PostfixProgram lowered = PostfixProgram.lower(tree);
+            if (tree.interpret() != lowered.interpret()) {
+                throw new IllegalStateException("Postfix result differs");
+            }
+            // 合計で約1億ノード分ずつ評価する
+            int iterations = Math.max(1, 100_000_000 / nodes);
+            double walk = 0;
+            double flat = 0;
+            for (int round = 0; round < 3; round++) {
+                walk = evaluationsPerSecond(tree, iterations);
+                flat = evaluationsPerSecond(lowered, iterations);
+            }
+            System.out.printf("%8d nodes : tree walk %,14.1f evals/s,  postfix %,14.1f evals/s  (x%.1f)%n",
+                    nodes, walk, flat, flat / walk);
+        }
+    }
+
+    private static double evaluationsPerSecond(Expression expression, int iterations) {
+        long start = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < iterations; i++) {
+            sum += expression.interpret();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (sum == 42) {
+            System.out.println();
+        }
+        return iterations / (elapsed / 1e9);
+    }
+
+    // 今のスレッドがこれまでに確保したバイト数（HotSpot 以外では -1）
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
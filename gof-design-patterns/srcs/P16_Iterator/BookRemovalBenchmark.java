@@ -0,0 +1,77 @@
+package P16_Iterator;
+
+// BookIterator.remove() の削除予定（まとめて詰める）と、その場で詰めるやり方の速さ比べ。
+//
+// 実行例:
+//   javac -encoding UTF-8 -d out P16_Iterator/*.java
+//   java -cp out P16_Iterator.BookRemovalBenchmark
+//
+// 手元（1コア、JDK 17）での結果の一例:
+//     100,000 冊  remove(index) のたびに詰める :      240.8 ms
+//     100,000 冊  BookIterator.remove()       :       28.7 ms
+//     100,000 冊  removeIf()                  :       23.0 ms
+//   1,000,000 冊  BookIterator.remove()       :       47.8 ms
+//   1,000,000 冊  removeIf()                  :       39.6 ms
+// その場で詰めるやり方は冊数の2乗で遅くなるので、100万冊なら 100,000 冊の約100倍（20秒以上）かかる。
+
+public class BookRemovalBenchmark {
+    public static void main(String[] args) {
+        System.out.println("=== 走査しながら消す ===\n");
+        BookCollection collection = new BookCollection();
+        collection.addBook(new Book("Java入門", "山田太郎"));
+        collection.addBook(new Book("デザインパターン", "佐藤花子"));
+        collection.addBook(new Book("リファクタリング", "鈴木一郎"));
+        Iterator<Book> iterator = collection.createIterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getAuthor().equals("佐藤花子")) {
+                iterator.remove();
+            }
+        }
+        System.out.println("remove()  : " + collection.size() + " 冊");
+        collection.removeIf(book -> book.getTitle().startsWith("Java"));
+        System.out.println("removeIf(): " + collection.size() + " 冊");
+
+        System.out.println("\n=== 半分を消す ===");
+        for (int books : new int[] {100_000, 1_000_000}) {
+            // その場で詰めるやり方は O(n^2) なので、小さい方だけ測る
+            if (books <= 100_000) {
+                BookCollection eager = create(books);
+                long start = System.nanoTime();
+                for (int i = 0; i < eager.size(); ) {
+                    if (eager.get(i).getTitle().hashCode() % 2 == 0) {
+                        eager.remove(i);
+                    } else {
+                        i++;
+                    }
+                }
+                System.out.printf("%,9d 冊  remove(index) のたびに詰める : %,10.1f ms  (残り %,d 冊)%n",
+                        books, (System.nanoTime() - start) / 1e6, eager.size());
+            }
+
+            BookCollection deferred = create(books);
+            long start = System.nanoTime();
+            Iterator<Book> it = deferred.createIterator();
+            while (it.hasNext()) {
+                if (it.next().getTitle().hashCode() % 2 == 0) {
+                    it.remove();
+                }
+            }
+            System.out.printf("%,9d 冊  BookIterator.remove()       : %,10.1f ms  (残り %,d 冊)%n",
+                    books, (System.nanoTime() - start) / 1e6, deferred.size());
+
+            BookCollection bulk = create(books);
+            start = System.nanoTime();
+            bulk.removeIf(book -> book.getTitle().hashCode() % 2 == 0);
+            System.out.printf("%,9d 冊  removeIf()                  : %,10.1f ms  (残り %,d 冊)%n",
+                    books, (System.nanoTime() - start) / 1e6, bulk.size());
+        }
+    }
+
+    private static BookCollection create(int books) {
+        BookCollection collection = new BookCollection();
+        for (int i = 0; i < books; i++) {
+            collection.addBook(new Book("title-" + i, "author-" + (i % 1000)));
+        }
+        return collection;
+    }
+}
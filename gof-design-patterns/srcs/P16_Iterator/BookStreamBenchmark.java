@@ -0,0 +1,85 @@
+package P16_Iterator;
+
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+// BookCollection.stream() / parallelStream() のデモと、絞り込み + 著者ごとの集計の速さを、使うコア数を変えて測る。
+//
+// 実行例:
+//   javac -encoding UTF-8 -d out P16_Iterator/*.java
+//   java -Xmx8g -cp out P16_Iterator.BookStreamBenchmark [冊数] [最大の並列数]
+// 冊数の既定は 500万冊（5000万冊なら 50000000 を渡し、ヒープを 8GB 程度にする）、最大の並列数の既定は CPU の数。
+//
+// 手元（1コア、JDK 17、500万冊）での結果の一例:
+//   sequential     :     64.0 ms
+//   parallel x1    :     81.6 ms  (x0.78)
+// コアが1つしかないので、並列にしても分割と結果のマップのマージの分だけ遅くなる。
+// コアが複数ある環境では、並列数に応じて速くなるはず（分割は SUBSIZED なので、ちょうど半分ずつに分かれる）。
+
+public class BookStreamBenchmark {
+    private static final int AUTHORS = 10_000;
+    private static final int TITLES = 1_000;
+
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
+        int books = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        int maxParallelism = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        System.out.println("=== ストリームで走査する ===\n");
+        BookCollection small = new BookCollection();
+        small.addBook(new Book("Java入門", "山田太郎"));
+        small.addBook(new Book("デザインパターン", "佐藤花子"));
+        small.addBook(new Book("リファクタリング", "鈴木一郎"));
+        small.stream().filter(book -> book.getTitle().length() > 6).forEach(System.out::println);
+
+        // 同じ文字列を使い回して、本のオブジェクトだけが冊数分あるようにする
+        String[] authors = new String[AUTHORS];
+        for (int i = 0; i < AUTHORS; i++) {
+            authors[i] = "author-" + i;
+        }
+        String[] titles = new String[TITLES];
+        for (int i = 0; i < TITLES; i++) {
+            titles[i] = (i % 3 == 0 ? "Java " : "Book ") + i;
+        }
+        BookCollection collection = new BookCollection();
+        for (int i = 0; i < books; i++) {
+            collection.addBook(new Book(titles[(int) ((i * 31L) % TITLES)], authors[(int) ((i * 7919L) % AUTHORS)]));
+        }
+
+        System.out.printf("%n=== %,d 冊: Java の本を著者ごとに数える ===%n", books);
+        long expected = countJavaBooks(collection, false).values().stream().mapToLong(Long::longValue).sum();
+        double baseline = 0;
+        for (int parallelism = 0; parallelism <= maxParallelism; parallelism++) {
+            // 0 は逐次のストリーム
+            boolean parallel = parallelism > 0;
+            ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+            try {
+                double best = Double.MAX_VALUE;
+                for (int round = 0; round < 5; round++) {
+                    long start = System.nanoTime();
+                    Map<String, Long> counts = pool.submit(() -> countJavaBooks(collection, parallel)).get();
+                    best = Math.min(best, (System.nanoTime() - start) / 1e6);
+                    long total = counts.values().stream().mapToLong(Long::longValue).sum();
+                    if (total != expected) {
+                        throw new IllegalStateException("Parallel result differs");
+                    }
+                }
+                if (parallelism == 0) {
+                    baseline = best;
+                    System.out.printf("sequential     : %8.1f ms%n", best);
+                } else {
+                    System.out.printf("parallel x%-3d  : %8.1f ms  (x%.2f)%n", parallelism, best, baseline / best);
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    private static Map<String, Long> countJavaBooks(BookCollection collection, boolean parallel) {
+        return (parallel ? collection.parallelStream() : collection.stream())
+                .filter(book -> book.getTitle().startsWith("Java"))
+                .collect(Collectors.groupingBy(Book::getAuthor, Collectors.counting()));
+    }
+}
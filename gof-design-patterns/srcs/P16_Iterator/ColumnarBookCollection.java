@@ -0,0 +1,163 @@
+package P16_Iterator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+// 本を1冊ずつ Book オブジェクト（と String 2つ）で持つ代わりに、列ごとに配列で持つ集合体。
+//
+//   タイトル: 全部の UTF-8 のバイト列を1本の byte[] に詰め、各行の開始位置を int[] で持つ
+//   著者    : 同じ名前が何度も出てくるので、名前 → 番号の辞書を作り、各行には番号（int）だけを持つ
+//   索引    : 著者の番号 → その著者の行の番号の一覧。著者で探すときは、見つかった冊数分だけの手間で済む
+//
+// Book オブジェクトは、createIterator() や get() で取り出すときに作る。
+// 追加だけができる（削除はできない）。スレッドセーフではない。
+class ColumnarBookCollection implements Aggregate<Book> {
+    private byte[] titleBytes = new byte[1024];
+    private int titleLength = 0;
+    // 行 i のタイトルは titleBytes[titleOffsets[i] .. titleOffsets[i + 1])
+    private int[] titleOffsets = new int[17];
+    private int[] authorIds = new int[16];
+    private int size = 0;
+
+    private final Map<String, Integer> authorDictionary = new HashMap<>();
+    private final List<String> authorNames = new ArrayList<>();
+    // 著者の番号 → 行の番号（rowCounts[id] 個まで有効）
+    private int[][] rowsByAuthor = new int[16][];
+    private int[] rowCounts = new int[16];
+
+    public void addBook(Book book) {
+        addBook(book.getTitle(), book.getAuthor());
+    }
+
+    public void addBook(String title, String author) {
+        byte[] encoded = title.getBytes(StandardCharsets.UTF_8);
+        if (titleLength + encoded.length > titleBytes.length) {
+            long grown = Math.max(titleBytes.length * 2L, (long) titleLength + encoded.length);
+            if (grown > Integer.MAX_VALUE - 8) {
+                // 1本の配列に入る分（約2GB）を超えた
+                throw new IllegalStateException("Title table is full");
+            }
+            titleBytes = Arrays.copyOf(titleBytes, (int) grown);
+        }
+        System.arraycopy(encoded, 0, titleBytes, titleLength, encoded.length);
+        titleLength += encoded.length;
+
+        if (size + 2 > titleOffsets.length) {
+            titleOffsets = Arrays.copyOf(titleOffsets, titleOffsets.length * 2);
+        }
+        if (size == authorIds.length) {
+            authorIds = Arrays.copyOf(authorIds, authorIds.length * 2);
+        }
+        int id = authorId(author);
+        authorIds[size] = id;
+        titleOffsets[size + 1] = titleLength;
+
+        int[] rows = rowsByAuthor[id];
+        if (rows == null) {
+            rows = new int[4];
+        } else if (rowCounts[id] == rows.length) {
+            rows = Arrays.copyOf(rows, rows.length * 2);
+        }
+        rows[rowCounts[id]++] = size;
+        rowsByAuthor[id] = rows;
+        size++;
+    }
+
+    private int authorId(String author) {
+        Integer id = authorDictionary.get(author);
+        if (id == null) {
+            id = authorNames.size();
+            authorDictionary.put(author, id);
+            authorNames.add(author);
+            if (id == rowsByAuthor.length) {
+                rowsByAuthor = Arrays.copyOf(rowsByAuthor, id * 2);
+                rowCounts = Arrays.copyOf(rowCounts, id * 2);
+            }
+        }
+        return id;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String getTitle(int index) {
+        checkIndex(index);
+        return new String(titleBytes, titleOffsets[index], titleOffsets[index + 1] - titleOffsets[index], StandardCharsets.UTF_8);
+    }
+
+    public String getAuthor(int index) {
+        checkIndex(index);
+        return authorNames.get(authorIds[index]);
+    }
+
+    public Book get(int index) {
+        return new Book(getTitle(index), getAuthor(index));
+    }
+
+    // 異なる著者の数
+    public int getAuthorCount() {
+        return authorNames.size();
+    }
+
+    public int countByAuthor(String author) {
+        Integer id = authorDictionary.get(author);
+        return id == null ? 0 : rowCounts[id];
+    }
+
+    // その著者の本だけを、追加した順に走査する
+    public Iterator<Book> booksByAuthor(String author) {
+        Integer id = authorDictionary.get(author);
+        int[] rows = id == null ? new int[0] : rowsByAuthor[id];
+        int count = id == null ? 0 : rowCounts[id];
+        return new RowIterator(rows, count);
+    }
+
+    @Override
+    public Iterator<Book> createIterator() {
+        return new RowIterator(null, size);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    // rows が null なら全部の行、そうでなければ rows[0 .. count) の行を走査する
+    private class RowIterator implements Iterator<Book> {
+        private final int[] rows;
+        private final int count;
+        private int position = 0;
+
+        RowIterator(int[] rows, int count) {
+            this.rows = rows;
+            this.count = count;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return position < count;
+        }
+
+        @Override
+        public Book next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int row = rows == null ? position : rows[position];
+            position++;
+            return get(row);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("ColumnarBookCollection is append-only");
+        }
+    }
+}
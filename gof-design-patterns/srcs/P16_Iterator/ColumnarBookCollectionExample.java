@@ -0,0 +1,94 @@
+package P16_Iterator;
+
+// ColumnarBookCollection のデモと、BookCollection とのメモリ使用量・著者での検索の速さの比べ。
+//
+// 実行例:
+//   javac -encoding UTF-8 -d out P16_Iterator/*.java
+//   java -cp out P16_Iterator.ColumnarBookCollectionExample [冊数]
+//
+// 手元（1コア、JDK 17、200万冊、著者 20,000 人）での結果の一例:
+//   BookCollection          :    269 MB
+//   ColumnarBookCollection  :     61 MB  (22.6%)
+//   著者で探す（全部なめる） :     33.674 ms  (100 冊)
+//   著者で探す（索引）       :      0.370 ms  (100 冊)
+
+public class ColumnarBookCollectionExample {
+    public static void main(String[] args) {
+        int books = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int authors = 20_000;
+
+        System.out.println("=== 列ごとに持つ集合体 ===\n");
+        ColumnarBookCollection small = new ColumnarBookCollection();
+        small.addBook(new Book("Java入門", "山田太郎"));
+        small.addBook(new Book("デザインパターン", "佐藤花子"));
+        small.addBook(new Book("リファクタリング", "山田太郎"));
+        Iterator<Book> iterator = small.createIterator();
+        while (iterator.hasNext()) {
+            System.out.println(iterator.next());
+        }
+        System.out.println("山田太郎の本:");
+        Iterator<Book> byAuthor = small.booksByAuthor("山田太郎");
+        while (byAuthor.hasNext()) {
+            System.out.println("  " + byAuthor.next());
+        }
+
+        System.out.printf("%n=== %,d 冊、著者 %,d 人 ===%n", books, authors);
+        long before = usedMemory();
+        BookCollection objects = new BookCollection();
+        for (int i = 0; i < books; i++) {
+            // 実際の読み込みと同じく、行ごとに別の String になる
+            objects.addBook(new Book("title-" + i, "author-" + (i * 7919L % authors)));
+        }
+        long objectBytes = usedMemory() - before;
+
+        before = usedMemory();
+        ColumnarBookCollection columns = new ColumnarBookCollection();
+        for (int i = 0; i < books; i++) {
+            columns.addBook("title-" + i, "author-" + (i * 7919L % authors));
+        }
+        long columnarBytes = usedMemory() - before;
+        System.out.printf("BookCollection          : %,6d MB%n", objectBytes >> 20);
+        System.out.printf("ColumnarBookCollection  : %,6d MB  (%.1f%%)%n", columnarBytes >> 20, 100.0 * columnarBytes / objectBytes);
+
+        String author = "author-1234";
+        long start = System.nanoTime();
+        int scanned = 0;
+        for (int round = 0; round < 10; round++) {
+            scanned = 0;
+            Iterator<Book> it = objects.createIterator();
+            while (it.hasNext()) {
+                if (it.next().getAuthor().equals(author)) {
+                    scanned++;
+                }
+            }
+        }
+        double scanMillis = (System.nanoTime() - start) / 1e6 / 10;
+
+        start = System.nanoTime();
+        int indexed = 0;
+        for (int round = 0; round < 10; round++) {
+            indexed = 0;
+            Iterator<Book> it = columns.booksByAuthor(author);
+            while (it.hasNext()) {
+                it.next();
+                indexed++;
+            }
+        }
+        double indexMillis = (System.nanoTime() - start) / 1e6 / 10;
+        System.out.printf("著者で探す（全部なめる） : %,10.3f ms  (%d 冊)%n", scanMillis, scanned);
+        System.out.printf("著者で探す（索引）       : %,10.3f ms  (%d 冊)%n", indexMillis, indexed);
+
+        // 比べ終わるまで両方を生かしておく
+        if (objects.size() + columns.size() == 42) {
+            System.out.println();
+        }
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
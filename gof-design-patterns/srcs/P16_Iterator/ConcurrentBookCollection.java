@@ -0,0 +1,88 @@
+package P16_Iterator;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+// 読む側をロックせずに、書く側と同時に使える集合体（追加だけができる）。
+//
+// 本は CHUNK_SIZE 冊ずつの配列（チャンク）に入れていき、一度入れた場所は二度と書き換えない。
+// 何冊目まで入っているか（size）は、チャンクに書き込んでから volatile で公開する。
+// createIterator() はその時点の size とチャンクの一覧を覚えておく（スナップショット）ので、
+//   - 走査中に addBook() されても、走査する範囲は変わらない（作った時点の本だけを見る）
+//   - 読む側はロックを取らないので、長い走査の間も書く側は止まらない
+// チャンクの一覧がいっぱいになったら、新しい一覧にコピーして差し替える（チャンク自体はコピーしない）。
+// 書く側どうしは、このオブジェクトのロックで1人ずつにする。
+class ConcurrentBookCollection implements Aggregate<Book> {
+    private static final int CHUNK_SHIFT = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    // size を読んでから chunks を読めば、size 冊分のチャンクは必ずそろっている
+    private volatile Book[][] chunks = new Book[16][];
+    private volatile int size = 0;
+
+    public synchronized void addBook(Book book) {
+        int index = size;
+        int chunk = index >>> CHUNK_SHIFT;
+        Book[][] current = chunks;
+        if (chunk == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+            chunks = current;
+        }
+        if (current[chunk] == null) {
+            current[chunk] = new Book[CHUNK_SIZE];
+        }
+        current[chunk][index & (CHUNK_SIZE - 1)] = book;
+        // ここで公開する。これより前の書き込みは、size を読んだ側から見える。
+        size = index + 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Book get(int index) {
+        int limit = size;
+        if (index < 0 || index >= limit) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + limit);
+        }
+        return chunks[index >>> CHUNK_SHIFT][index & (CHUNK_SIZE - 1)];
+    }
+
+    // 今の時点の本だけを走査するイテレーター
+    @Override
+    public Iterator<Book> createIterator() {
+        int limit = size;
+        return new SnapshotIterator(chunks, limit);
+    }
+
+    private static class SnapshotIterator implements Iterator<Book> {
+        private final Book[][] chunks;
+        private final int limit;
+        private int position = 0;
+
+        SnapshotIterator(Book[][] chunks, int limit) {
+            this.chunks = chunks;
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return position < limit;
+        }
+
+        @Override
+        public Book next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Book book = chunks[position >>> CHUNK_SHIFT][position & (CHUNK_SIZE - 1)];
+            position++;
+            return book;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Snapshots are read-only");
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package P16_Iterator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// ConcurrentBookCollection のデモと、読む側・書く側が同時に動くときの、synchronized で包んだ BookCollection との比べ。
+//
+// 実行例:
+//   javac -encoding UTF-8 -d out P16_Iterator/*.java
+//   java -cp out P16_Iterator.ConcurrentBookCollectionBenchmark
+//
+// 手元（1コア、JDK 17、最初に100万冊、書く側1スレッド・読む側3スレッド、各2秒）での結果の一例:
+//   ConcurrentBookCollection    : appends    1,018,493 /s, scans   25.5 /s, max append   480.420 ms
+//   synchronized BookCollection : appends      325,878 /s, scans   74.0 /s, max append    84.116 ms
+// synchronized の方は、走査の間（約 80ms）書く側が待たされるので、追加の数が 1/3 ほどになる。
+// ConcurrentBookCollection の方は追加が多い分だけ本が増え、1回の走査が長くなるので scans は少なく見える。
+// コアが1つしかないので、max append はスレッドの切り替えと GC の停止でほぼ決まってしまい、比べる意味は薄い。
+
+// 比べる相手: 全部の操作を1つのロックで守る。走査中もロックを持ち続けないと、結果が定まらない。
+class SynchronizedBookCollection {
+    private final BookCollection books = new BookCollection();
+
+    public synchronized void addBook(Book book) {
+        books.addBook(book);
+    }
+
+    public synchronized int size() {
+        return books.size();
+    }
+
+    // 走査の間ずっとロックを持つ
+    public synchronized long countByAuthor(String author) {
+        long count = 0;
+        Iterator<Book> iterator = books.createIterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getAuthor().equals(author)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
+
+public class ConcurrentBookCollectionBenchmark {
+    private static final int INITIAL_BOOKS = 1_000_000;
+    private static final int READERS = 3;
+    private static final long DURATION_MILLIS = 2_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println("=== 走査中に追加しても、走査する範囲は変わらない ===\n");
+        ConcurrentBookCollection small = new ConcurrentBookCollection();
+        small.addBook(new Book("Java入門", "山田太郎"));
+        small.addBook(new Book("デザインパターン", "佐藤花子"));
+        Iterator<Book> snapshot = small.createIterator();
+        small.addBook(new Book("リファクタリング", "鈴木一郎"));
+        while (snapshot.hasNext()) {
+            System.out.println(snapshot.next());
+        }
+        System.out.println("size: " + small.size());
+
+        System.out.printf("%n=== 最初に %,d 冊、書く側 1、読む側 %d（全件を走査）===%n", INITIAL_BOOKS, READERS);
+        ConcurrentBookCollection concurrent = new ConcurrentBookCollection();
+        SynchronizedBookCollection locked = new SynchronizedBookCollection();
+        for (int i = 0; i < INITIAL_BOOKS; i++) {
+            Book book = new Book("title-" + i, "author-" + (i % 1000));
+            concurrent.addBook(book);
+            locked.addBook(book);
+        }
+
+        for (int round = 0; round < 2; round++) {
+            run("ConcurrentBookCollection   ",
+                    concurrent::addBook,
+                    () -> {
+                        long count = 0;
+                        Iterator<Book> iterator = concurrent.createIterator();
+                        while (iterator.hasNext()) {
+                            if (iterator.next().getAuthor().equals("author-7")) {
+                                count++;
+                            }
+                        }
+                        return count;
+                    });
+            run("synchronized BookCollection",
+                    locked::addBook,
+                    () -> locked.countByAuthor("author-7"));
+        }
+    }
+
+    interface Scan {
+        long run();
+    }
+
+    interface Writer {
+        void add(Book book);
+    }
+
+    private static void run(String name, Writer writer, Scan scan) throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder appends = new LongAdder();
+        LongAdder scans = new LongAdder();
+        // 1回の追加にかかった時間の最大（書く側がどれだけ止められたか）
+        long[] maxAppendNanos = new long[1];
+        List<Thread> threads = new ArrayList<>();
+
+        Thread writerThread = new Thread(() -> {
+            int i = 0;
+            while (running.get()) {
+                long start = System.nanoTime();
+                writer.add(new Book("new-" + i, "author-" + (i % 1000)));
+                maxAppendNanos[0] = Math.max(maxAppendNanos[0], System.nanoTime() - start);
+                appends.increment();
+                i++;
+            }
+        });
+        threads.add(writerThread);
+        for (int r = 0; r < READERS; r++) {
+            threads.add(new Thread(() -> {
+                long sum = 0;
+                while (running.get()) {
+                    sum += scan.run();
+                    scans.increment();
+                }
+                if (sum == 42) {
+                    System.out.println();
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        Thread.sleep(DURATION_MILLIS);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = DURATION_MILLIS / 1000.0;
+        System.out.printf("%s : appends %,12.0f /s, scans %,6.1f /s, max append %,9.3f ms%n",
+                name, appends.sum() / seconds, scans.sum() / seconds, maxAppendNanos[0] / 1e6);
+    }
+}
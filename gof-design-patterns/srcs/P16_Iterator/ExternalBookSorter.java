@@ -0,0 +1,238 @@
+package P16_Iterator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+// メモリに入りきらない数の本を並べ替える（外部マージソート）。
+//
+// 1. 入力から runSize 冊ずつ読んではメモリ上で並べ替え、一時ファイル（ラン）に書き出す。
+//    ファイルの形式は MappedBookCatalog と同じ。
+// 2. 全部のランの先頭の本を優先度付きキュー（ヒープ）に入れ、一番小さいものを取り出しては、
+//    そのランの次の本を入れる（k-way マージ）。
+// 結果は Iterator<Book> として1冊ずつ返すので、全部を一度にメモリに持つことはない。
+// メモリに持つのは、1. では runSize 冊、2. ではランの数だけの本。
+// 入力が runSize 冊以下なら、ファイルには書かずにメモリ上で並べ替えるだけにする。
+class ExternalBookSorter {
+    // ランを読むときの窓（ランの数だけマップするので、小さめにする）。
+    // ランは先頭から順に少しずつしか読まないので、先読みのスレッドは付けない（ランの数だけスレッドができてしまう）。
+    private static final int RUN_WINDOW_SIZE = MappedBookCatalog.MAX_RECORD_SIZE * 4;
+
+    private final Comparator<Book> comparator;
+    private final int runSize;
+    private final Path tempDirectory;
+
+    public ExternalBookSorter(Comparator<Book> comparator, int runSize, Path tempDirectory) {
+        if (runSize <= 0) {
+            throw new IllegalArgumentException("runSize must be positive");
+        }
+        this.comparator = comparator;
+        this.runSize = runSize;
+        this.tempDirectory = tempDirectory;
+    }
+
+    public SortedBookIterator sort(Aggregate<Book> books) throws IOException {
+        return sort(books.createIterator());
+    }
+
+    public SortedBookIterator sort(Iterator<Book> books) throws IOException {
+        List<Path> runs = new ArrayList<>();
+        Book[] buffer = new Book[runSize];
+        try {
+            while (true) {
+                int filled = 0;
+                while (filled < runSize && books.hasNext()) {
+                    buffer[filled++] = books.next();
+                }
+                Arrays.sort(buffer, 0, filled, comparator);
+                if (runs.isEmpty() && !books.hasNext()) {
+                    // 全部メモリに入った
+                    return new SortedBookIterator(Arrays.copyOf(buffer, filled));
+                }
+                if (filled > 0) {
+                    Path run = Files.createTempFile(tempDirectory, "run", ".catalog");
+                    runs.add(run);
+                    MappedBookCatalog.write(run, new ArrayIterator(buffer, filled));
+                }
+                // 書き出した本は手放す
+                Arrays.fill(buffer, 0, filled, null);
+                if (!books.hasNext()) {
+                    break;
+                }
+            }
+            return new SortedBookIterator(runs, comparator);
+        } catch (IOException | RuntimeException e) {
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+            throw e;
+        }
+    }
+
+    private static class ArrayIterator implements Iterator<Book> {
+        private final Book[] books;
+        private final int length;
+        private int position = 0;
+
+        ArrayIterator(Book[] books, int length) {
+            this.books = books;
+            this.length = length;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return position < length;
+        }
+
+        @Override
+        public Book next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return books[position++];
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    // 並べ替えた結果を1冊ずつ返すイテレーター。最後まで読むか close() すると、一時ファイルを消す。
+    static class SortedBookIterator implements Iterator<Book>, AutoCloseable {
+        // 全部メモリに入ったとき
+        private final Book[] inMemory;
+        private int position = 0;
+
+        // ランをマージするとき
+        private final List<MappedBookCatalog> catalogs = new ArrayList<>();
+        private final List<Path> runs;
+        private final PriorityQueue<RunHead> heap;
+        private boolean closed = false;
+
+        SortedBookIterator(Book[] sorted) {
+            this.inMemory = sorted;
+            this.runs = new ArrayList<>();
+            this.heap = null;
+        }
+
+        SortedBookIterator(List<Path> runs, Comparator<Book> comparator) throws IOException {
+            this.inMemory = null;
+            this.runs = runs;
+            // 同じ値なら先のランから出す（安定な並べ替えにする）
+            this.heap = new PriorityQueue<>(Math.max(1, runs.size()), (a, b) -> {
+                int order = comparator.compare(a.book, b.book);
+                return order != 0 ? order : Integer.compare(a.run, b.run);
+            });
+            try {
+                for (int i = 0; i < runs.size(); i++) {
+                    MappedBookCatalog catalog = new MappedBookCatalog(runs.get(i), RUN_WINDOW_SIZE, false);
+                    catalogs.add(catalog);
+                    Iterator<Book> iterator = catalog.createIterator();
+                    if (iterator.hasNext()) {
+                        heap.add(new RunHead(i, iterator.next(), iterator));
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        public int getRunCount() {
+            return runs.size();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (inMemory != null) {
+                return position < inMemory.length;
+            }
+            if (heap.isEmpty()) {
+                close();
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public Book next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (inMemory != null) {
+                return inMemory[position++];
+            }
+            RunHead head = heap.poll();
+            Book book = head.book;
+            if (head.rest.hasNext()) {
+                head.book = head.rest.next();
+                heap.add(head);
+            }
+            return book;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (heap != null) {
+                heap.clear();
+            }
+            // どれかの close() や削除が失敗しても、残りは最後まで片付けてから、最初の失敗を投げる
+            IOException failure = null;
+            for (MappedBookCatalog catalog : catalogs) {
+                try {
+                    catalog.close();
+                } catch (IOException e) {
+                    failure = addFailure(failure, e);
+                }
+            }
+            for (Path run : runs) {
+                try {
+                    Files.deleteIfExists(run);
+                } catch (IOException e) {
+                    failure = addFailure(failure, e);
+                }
+            }
+            if (failure != null) {
+                throw new UncheckedIOException(failure);
+            }
+        }
+    }
+
+    private static IOException addFailure(IOException failure, IOException e) {
+        if (failure == null) {
+            return e;
+        }
+        failure.addSuppressed(e);
+        return failure;
+    }
+
+    // ランごとの「今の先頭の本」と、その続き
+    private static class RunHead {
+        final int run;
+        Book book;
+        final Iterator<Book> rest;
+
+        RunHead(int run, Book book, Iterator<Book> rest) {
+            this.run = run;
+            this.book = book;
+            this.rest = rest;
+        }
+    }
+}
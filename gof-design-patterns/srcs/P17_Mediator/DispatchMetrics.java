@@ -0,0 +1,172 @@
+package P17_Mediator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import P14_Command.LatencyHistogram;
+
+// メディエーターの配送にかかった時間を測る仕組み（SmartHomeMediator、AsyncSmartHomeMediator、PartitionedMediator の
+// setMetrics() で付ける）。
+//
+//   - イベントの種類ごと: notify() 1回の時間。同期の SmartHomeMediator なら全員に配り終わるまで、
+//                         非同期のものなら郵便受け（キュー）に入れ終わるまで（一杯で待たされた時間が見える）
+//   - コンポーネントごと: receive() 1回の時間
+//   - 遅かった配送: しきい値を超えた receive() を、どのイベントのどの機器だったかと一緒に、直近 N 件だけ残す
+//
+// 時間は、HdrHistogram と同じ考え方の対数のバケット（2のべき乗ごとに16等分）に数えるだけなので、
+// 記録するときにメモリを確保しない。ヒストグラムは P14_Command の LatencyHistogram（複数スレッド用）をそのまま使う。
+// snapshot() で今の値の写しを取り、snapshotAndReset() なら取ると同時に 0 に戻す（定期的に集める用）。
+// 付けていない（null の）ときは、メディエーターは時刻も取らない。
+class DispatchMetrics {
+    private final EnumMap<EventType, LatencyHistogram> byEvent = new EnumMap<>(EventType.class);
+    private final Map<Component, LatencyHistogram> byComponent = Collections.synchronizedMap(new IdentityHashMap<>());
+    private final long slowThresholdNanos;
+    // 遅かった配送の記録（リング）
+    private final SlowDispatch[] slow;
+    private long slowCount;
+
+    public DispatchMetrics(long slowThresholdNanos, int slowTraceCapacity) {
+        this.slowThresholdNanos = slowThresholdNanos;
+        this.slow = new SlowDispatch[slowTraceCapacity];
+        for (EventType type : EventType.values()) {
+            byEvent.put(type, LatencyHistogram.concurrent());
+        }
+    }
+
+    // メディエーターが機器を登録するときに呼ぶ。記録のたびに探さなくて済むように、ヒストグラムを返しておく。
+    LatencyHistogram histogramFor(Component component) {
+        return byComponent.computeIfAbsent(component, c -> LatencyHistogram.concurrent());
+    }
+
+    // 1台分の記録係。別のスレッドで receive() を呼ぶメディエーターが、機器ごとに持っておく
+    ComponentRecorder recorderFor(Component component) {
+        return new ComponentRecorder(this, component, histogramFor(component));
+    }
+
+    LatencyHistogram histogramFor(EventType event) {
+        return byEvent.get(event);
+    }
+
+    // receive() 1回分を記録する
+    void recordReceive(LatencyHistogram histogram, Component component, EventType event, long nanos) {
+        histogram.record(nanos);
+        if (nanos >= slowThresholdNanos && slow.length > 0) {
+            // 遅いときだけの道なので、ここではメモリを確保して良い
+            synchronized (slow) {
+                slow[(int) (slowCount++ % slow.length)] = new SlowDispatch(event, component, nanos);
+            }
+        }
+    }
+
+    public Snapshot snapshot() {
+        return takeSnapshot(false);
+    }
+
+    public Snapshot snapshotAndReset() {
+        return takeSnapshot(true);
+    }
+
+    private Snapshot takeSnapshot(boolean reset) {
+        EnumMap<EventType, LatencyHistogram> events = new EnumMap<>(EventType.class);
+        for (Map.Entry<EventType, LatencyHistogram> entry : byEvent.entrySet()) {
+            events.put(entry.getKey(), entry.getValue().snapshot(reset));
+        }
+        Map<Component, LatencyHistogram> components = new IdentityHashMap<>();
+        synchronized (byComponent) {
+            for (Map.Entry<Component, LatencyHistogram> entry : byComponent.entrySet()) {
+                components.put(entry.getKey(), entry.getValue().snapshot(reset));
+            }
+        }
+        List<SlowDispatch> slowList = new ArrayList<>();
+        synchronized (slow) {
+            long first = Math.max(0, slowCount - slow.length);
+            for (long i = first; i < slowCount; i++) {
+                slowList.add(slow[(int) (i % slow.length)]);
+            }
+            if (reset) {
+                slowCount = 0;
+                java.util.Arrays.fill(slow, null);
+            }
+        }
+        return new Snapshot(events, components, slowList);
+    }
+
+    // 集めた値の写し
+    static class Snapshot {
+        private final Map<EventType, LatencyHistogram> events;
+        private final Map<Component, LatencyHistogram> components;
+        private final List<SlowDispatch> slowDispatches;
+
+        Snapshot(Map<EventType, LatencyHistogram> events,
+                 Map<Component, LatencyHistogram> components,
+                 List<SlowDispatch> slowDispatches) {
+            this.events = Collections.unmodifiableMap(events);
+            this.components = Collections.unmodifiableMap(components);
+            this.slowDispatches = Collections.unmodifiableList(slowDispatches);
+        }
+
+        public Map<EventType, LatencyHistogram> getEvents() {
+            return events;
+        }
+
+        public Map<Component, LatencyHistogram> getComponents() {
+            return components;
+        }
+
+        // 古い順
+        public List<SlowDispatch> getSlowDispatches() {
+            return slowDispatches;
+        }
+    }
+}
+
+// 1台の機器の receive() を記録する（DispatchMetrics と、その機器のヒストグラムの組）
+class ComponentRecorder {
+    private final DispatchMetrics metrics;
+    private final Component component;
+    private final LatencyHistogram histogram;
+
+    ComponentRecorder(DispatchMetrics metrics, Component component, LatencyHistogram histogram) {
+        this.metrics = metrics;
+        this.component = component;
+        this.histogram = histogram;
+    }
+
+    void recordReceive(EventType event, long nanos) {
+        metrics.recordReceive(histogram, component, event, nanos);
+    }
+}
+
+// 遅かった receive() 1回分
+class SlowDispatch {
+    private final EventType event;
+    private final Component component;
+    private final long nanos;
+
+    SlowDispatch(EventType event, Component component, long nanos) {
+        this.event = event;
+        this.component = component;
+        this.nanos = nanos;
+    }
+
+    public EventType getEvent() {
+        return event;
+    }
+
+    public Component getComponent() {
+        return component;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    @Override
+    public String toString() {
+        return event + " → " + component.getClass().getSimpleName() + ": " + nanos / 1_000 + " us";
+    }
+}
@@ -0,0 +1,130 @@
+package P17_Mediator;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+import P14_Command.LatencyHistogram;
+
+// SmartHomeMediator に DispatchMetrics を付けて、どこで時間がかかっているかを調べる例と、
+// 付けたとき・付けないときの notify() の速さの比較。最後に、非同期のメディエーターにも付けてみる。
+//
+// 実行例（MediatorExample.java にも Mediator があるので、パッケージ全部ではなく必要なファイルだけをコンパイルする。
+// ヒストグラムは P14_Command の LatencyHistogram を使うので、それも一緒にコンパイルする）:
+//   javac -encoding UTF-8 -d out P14_Command/LatencyHistogram.java P17_Mediator/MediatorSample.java \
+//       P17_Mediator/SubscriptionIndexBenchmark.java P17_Mediator/DispatchMetrics.java \
+//       P17_Mediator/AsyncSmartHomeMediator.java P17_Mediator/PartitionedMediator.java P17_Mediator/DispatchMetricsExample.java
+//   java -cp out P17_Mediator.DispatchMetricsExample
+//
+// 手元（1コア、JDK 17）での結果の一例:
+//   測らない: 1,386 ns/event（機器 1,000 台、MORNING_MODE を受け取るのは 100 台）
+//   測る    : 36,020 ns/event
+//   MORNING_MODE: count 20,000, p50 6,144 ns, p99 13,312 ns, max 1,279,105 ns
+//   NIGHT_MODE: count 20,000, p50 61,440 ns, p99 1,114,112 ns, max 10,296,690 ns
+//   p99.9 が大きい順: HiccupDevice p99.9 1,048,576 ns, max 10,242,358 ns / CountingDevice p99.9 448 ns, ...
+//   遅かった配送（直近 5 件）: [NIGHT_MODE → HiccupDevice: 1069 us, NIGHT_MODE → HiccupDevice: 1093 us, ...]
+//   AsyncSmartHomeMediator  遅かった配送: [NIGHT_MODE → HiccupDevice: 1177 us, ..., NIGHT_MODE → HiccupDevice: 3995 us]
+//   PartitionedMediator     遅かった配送: [NIGHT_MODE → HiccupDevice: 1116 us, ..., NIGHT_MODE → HiccupDevice: 5593 us]
+// 測るときは receive() のたびに System.nanoTime() とヒストグラムへの記録が入るので、1台あたり 60 ns くらい遅くなる
+// （この例の receive() はほとんど何もしないので、割合で見るとひどく見える）。
+// 付けていないときは、null かどうかを見るだけなので、付ける前と変わらない。
+// 普段は外しておき、調べたいときだけ setMetrics() で付けるのが良い。
+
+// たまに（200 回に1回）1ms 止まる機器
+class HiccupDevice implements Component {
+    private long received;
+
+    @Override
+    public void receive(EventType event) {
+        if (++received % 200 == 0) {
+            LockSupport.parkNanos(1_000_000);
+        }
+    }
+}
+
+public class DispatchMetricsExample {
+    public static void main(String[] args) {
+        List<Component> components = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            // 1割は朝モードと夜モード、残りは夜モードだけを受け取る
+            components.add(new CountingDevice(i % 10 == 0
+                    ? EnumSet.of(EventType.MORNING_MODE, EventType.NIGHT_MODE)
+                    : EnumSet.of(EventType.NIGHT_MODE)));
+        }
+        SmartHomeMediator mediator = new SmartHomeMediator();
+        mediator.setDevices(components);
+
+        int events = 200_000;
+        double off = 0;
+        double on = 0;
+        DispatchMetrics metrics = new DispatchMetrics(500_000, 5);
+        for (int round = 0; round < 3; round++) {
+            mediator.setMetrics(null);
+            off = notifyNanos(mediator, events);
+            mediator.setMetrics(metrics);
+            on = notifyNanos(mediator, events);
+        }
+        System.out.printf("測らない: %,.0f ns/event（機器 %,d 台、MORNING_MODE を受け取るのは %,d 台）%n",
+                off, components.size(), components.size() / 10);
+        System.out.printf("測る    : %,.0f ns/event%n", on);
+
+        // 遅い機器を1台混ぜて、どこが遅いかを見つける
+        components.add(new HiccupDevice());
+        mediator.setDevices(components);
+        metrics.snapshotAndReset();
+        for (int i = 0; i < 20_000; i++) {
+            mediator.notify(EventType.MORNING_MODE);
+            mediator.notify(EventType.NIGHT_MODE);
+        }
+        DispatchMetrics.Snapshot snapshot = metrics.snapshot();
+        for (Map.Entry<EventType, LatencyHistogram> entry : snapshot.getEvents().entrySet()) {
+            if (entry.getValue().getTotalCount() > 0) {
+                System.out.println(entry.getKey() + ": " + entry.getValue());
+            }
+        }
+        List<Map.Entry<Component, LatencyHistogram>> slowest = new ArrayList<>(snapshot.getComponents().entrySet());
+        // max は GC などにも引きずられるので、p99.9 で並べる
+        slowest.sort((a, b) -> Long.compare(b.getValue().getValueAtPercentile(99.9), a.getValue().getValueAtPercentile(99.9)));
+        System.out.print("p99.9 が大きい順:");
+        for (int i = 0; i < 3; i++) {
+            Map.Entry<Component, LatencyHistogram> entry = slowest.get(i);
+            System.out.printf(" %s p99.9 %,d ns, max %,d ns /", entry.getKey().getClass().getSimpleName(),
+                    entry.getValue().getValueAtPercentile(99.9), entry.getValue().getMaxValue());
+        }
+        System.out.println();
+        System.out.println("遅かった配送（直近 5 件）: " + snapshot.getSlowDispatches());
+
+        // 非同期のメディエーターにも、同じように付けられる
+        System.out.println();
+        List<Component> few = new ArrayList<>(components.subList(0, 10));
+        few.add(new HiccupDevice());
+        try (AsyncSmartHomeMediator async = new AsyncSmartHomeMediator(few, 1_024, OverflowPolicy.BLOCK)) {
+            DispatchMetrics asyncMetrics = new DispatchMetrics(500_000, 3);
+            async.setMetrics(asyncMetrics);
+            for (int i = 0; i < 2_000; i++) {
+                async.notify(EventType.NIGHT_MODE);
+            }
+            async.close();
+            System.out.println("AsyncSmartHomeMediator  遅かった配送: " + asyncMetrics.snapshot().getSlowDispatches());
+        }
+        try (PartitionedMediator partitioned = new PartitionedMediator(few, 2)) {
+            DispatchMetrics partitionedMetrics = new DispatchMetrics(500_000, 3);
+            partitioned.setMetrics(partitionedMetrics);
+            for (int i = 0; i < 2_000; i++) {
+                partitioned.notify(EventType.NIGHT_MODE);
+            }
+            partitioned.flush();
+            System.out.println("PartitionedMediator     遅かった配送: " + partitionedMetrics.snapshot().getSlowDispatches());
+        }
+    }
+
+    private static double notifyNanos(SmartHomeMediator mediator, int events) {
+        long start = System.nanoTime();
+        for (int i = 0; i < events; i++) {
+            mediator.notify(i % 2 == 0 ? EventType.MORNING_MODE : EventType.NIGHT_MODE);
+        }
+        return (double) (System.nanoTime() - start) / events;
+    }
+}
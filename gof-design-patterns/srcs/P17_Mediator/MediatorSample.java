@@ -1,5 +1,11 @@
 package P17_Mediator;
 
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Set;
+
+import P14_Command.LatencyHistogram;
+
 // メディエータ（調停者・コントローラー）として、スマートホームのコントローラーを作成する。
 // 同僚（コンポーネント）は、照明、カーテン、空調の3つを準備する。
 // クライアント（ユーザー、マネージャー、mainメソッド）は、個々のコンポーネントを起動しなくて良くて、
@@ -25,6 +31,12 @@ enum EventType {
 interface Component {
     // イベントを受け取る
     void receive(EventType event);
+
+    // 受け取りたいイベントの種類。メディエーターは、ここに入っているイベントだけを届ける。
+    // 何も指定しなければ、全部のイベントを受け取る。
+    default Set<EventType> subscribedEvents() {
+        return EnumSet.allOf(EventType.class);
+    }
 }
 
 // 電気を操作するクラス
@@ -37,6 +49,11 @@ class Light implements Component{
         System.out.println("照明を消します"); 
     }
 
+    @Override
+    public Set<EventType> subscribedEvents() {
+        return EnumSet.of(EventType.MORNING_MODE, EventType.NIGHT_MODE);
+    }
+
     /**
      * Lightクラスは、Colleagueインターフェースを実装しています。
      * 受け取ったイベントに応じて、照明を操作します。
@@ -68,6 +85,11 @@ class Curtain implements Component {
         System.out.println("カーテンを閉めます"); 
     }
 
+    @Override
+    public Set<EventType> subscribedEvents() {
+        return EnumSet.of(EventType.MORNING_MODE, EventType.NIGHT_MODE);
+    }
+
     /**
      * Curtainクラスは、Colleagueインターフェースを実装しています。
      * 受け取ったイベントに応じて、カーテンを操作します。
@@ -97,6 +119,11 @@ class AirConditioner implements Component {
         System.out.println("エアコンを消します"); 
     }
 
+    @Override
+    public Set<EventType> subscribedEvents() {
+        return EnumSet.of(EventType.MORNING_MODE, EventType.NIGHT_MODE);
+    }
+
     /**
      * AirConditionerクラスは、Colleagueインターフェースを実装しています。
      * 受け取ったイベントに応じて、エアコンを操作します。
@@ -129,24 +156,99 @@ class SmartHomeMediator implements Mediator {
 
     // コンポーネントのリストを内包している
     private java.util.List<Component> components;
+    // イベントの種類 → そのイベントを受け取りたいコンポーネント（setDevices で作り直す）
+    private EnumMap<EventType, Component[]> subscribers;
+    // 配送の時間を測るとき（setMetrics）だけ使う。
+    // 配送の途中で別のスレッドから付け外ししても、metrics とヒストグラムの組が食い違わないように、1つにまとめて volatile で入れ替える
+    private volatile Measurement measurement;
+
+    // 測るときに使うものの組。subscriberHistograms は subscribers と同じ並びの、コンポーネントごとのヒストグラム
+    private static final class Measurement {
+        final DispatchMetrics metrics;
+        final EnumMap<EventType, LatencyHistogram[]> subscriberHistograms;
+
+        Measurement(DispatchMetrics metrics, EnumMap<EventType, LatencyHistogram[]> subscriberHistograms) {
+            this.metrics = metrics;
+            this.subscriberHistograms = subscriberHistograms;
+        }
+    }
 
     public SmartHomeMediator() {
         this.components = new java.util.ArrayList<>();
+        this.subscribers = new EnumMap<>(EventType.class);
     }
 
     // コンポーネントのリストを設定する
     public void setDevices(java.util.List<Component> devices) {
         this.components.clear();
         this.components.addAll(devices);
+        EnumMap<EventType, java.util.List<Component>> lists = new EnumMap<>(EventType.class);
+        for (EventType type : EventType.values()) {
+            lists.put(type, new java.util.ArrayList<>());
+        }
+        for (Component component : components) {
+            for (EventType type : component.subscribedEvents()) {
+                lists.get(type).add(component);
+            }
+        }
+        EnumMap<EventType, Component[]> index = new EnumMap<>(EventType.class);
+        for (EventType type : EventType.values()) {
+            index.put(type, lists.get(type).toArray(new Component[0]));
+        }
+        this.subscribers = index;
+        Measurement current = measurement;
+        if (current != null) {
+            setMetrics(current.metrics);
+        }
+    }
+
+    // 配送の時間を測るようにする（null で止める）。測らないときは、notify() は時刻も取らない。
+    // notify() と別のスレッドから呼んで良い（setDevices() は、配送が始まる前に呼ぶこと）。
+    public void setMetrics(DispatchMetrics metrics) {
+        if (metrics == null) {
+            this.measurement = null;
+            return;
+        }
+        EnumMap<EventType, LatencyHistogram[]> histograms = new EnumMap<>(EventType.class);
+        for (java.util.Map.Entry<EventType, Component[]> entry : subscribers.entrySet()) {
+            Component[] targets = entry.getValue();
+            LatencyHistogram[] array = new LatencyHistogram[targets.length];
+            for (int i = 0; i < targets.length; i++) {
+                array[i] = metrics.histogramFor(targets[i]);
+            }
+            histograms.put(entry.getKey(), array);
+        }
+        this.measurement = new Measurement(metrics, histograms);
     }
 
     // メディエーター（調停者）がイベントを通知する(notifyメソッド)
     // コンポーネント（同僚）はイベントを受け取る（receiveメソッド）
+    // 全員に配るのではなく、そのイベントを受け取りたいコンポーネントにだけ配る。
     @Override
     public void notify(EventType event) {
-        for (Component component : components) {
-            component.receive(event);
+        Measurement current = measurement;
+        if (current == null) {
+            for (Component component : subscribers.get(event)) {
+                component.receive(event);
+            }
+            return;
+        }
+        notifyMeasured(event, current);
+    }
+
+    private void notifyMeasured(EventType event, Measurement current) {
+        DispatchMetrics metrics = current.metrics;
+        Component[] targets = subscribers.get(event);
+        LatencyHistogram[] histograms = current.subscriberHistograms.get(event);
+        long begin = System.nanoTime();
+        long start = begin;
+        for (int i = 0; i < targets.length; i++) {
+            targets[i].receive(event);
+            long end = System.nanoTime();
+            metrics.recordReceive(histograms[i], targets[i], event, end - start);
+            start = end;
         }
+        metrics.histogramFor(event).record(start - begin);
     }
 }
 
@@ -0,0 +1,208 @@
+package P17_Mediator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// コンポーネントが何十万台もあるときに、配る作業を複数のコアに分ける Mediator。
+//
+// 1. コンポーネントを、パーティション（既定は CPU の数）に順番に割り振る。
+// 2. パーティションごとに、スレッド1本のイベントループ（1スレッドの ThreadPoolExecutor）を持つ。
+// 3. notify() は、全部のパーティションに「このイベントを配って」と頼むだけ。
+//    各パーティションは、自分の受け持ちのうち、そのイベントを受け取りたいコンポーネントにだけ配る。
+// 送る側から見た使い方（notify()）は SmartHomeMediator と同じ。
+// 1つのコンポーネントは1つのパーティションにしかいないので、そのコンポーネントにはイベントが notify() の順に届く。
+// ループのキューが一杯になったら、notify() は空くまで待つ。
+// 配り終わるのを待ちたいときは flush() を呼ぶ。close() の後の notify() は RejectedExecutionException になる。
+//
+// 注意: receive() の中から notify() を呼ぶと、自分のパーティションのキューが一杯なら、
+// 自分が空けるのを自分で待つことになり、止まってしまう。そうならないように、そのときだけは待たずに
+// RejectedExecutionException を投げる。2つのパーティションが互いに待ち合う場合は防げないので、receive() の中からは呼ばない方が良い。
+class PartitionedMediator implements Mediator, AutoCloseable {
+    private static final int QUEUE_CAPACITY = 1024;
+
+    // 1つのパーティション: イベントの種類ごとの受け持ちのコンポーネントと、イベントループ
+    private static class Partition {
+        final Component[][] subscribers = new Component[EventType.values().length][];
+        final ThreadPoolExecutor loop;
+        // イベントループのスレッド（1本だけ）
+        volatile Thread thread;
+        // setMetrics() で付けたときだけ。subscribers と同じ並びの、コンポーネントごとの記録係
+        volatile ComponentRecorder[][] recorders;
+
+        Partition(List<Component> components, int index) {
+            List<List<Component>> lists = new ArrayList<>();
+            for (int i = 0; i < subscribers.length; i++) {
+                lists.add(new ArrayList<>());
+            }
+            for (Component component : components) {
+                for (EventType type : component.subscribedEvents()) {
+                    lists.get(type.ordinal()).add(component);
+                }
+            }
+            for (int i = 0; i < subscribers.length; i++) {
+                subscribers[i] = lists.get(i).toArray(new Component[0]);
+            }
+            loop = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+                    runnable -> {
+                        thread = new Thread(runnable, "mediator-partition-" + index);
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    (task, executor) -> {
+                        // 一杯なら空くまで待つ（呼び出し側で実行すると、順番が崩れるので）
+                        if (executor.isShutdown()) {
+                            throw new RejectedExecutionException("Mediator is closed");
+                        }
+                        if (Thread.currentThread() == thread) {
+                            // receive() の中から notify() した。待つと自分で自分を待つことになる
+                            throw new RejectedExecutionException("Partition is full (notify() from its own receive())");
+                        }
+                        try {
+                            executor.getQueue().put(task);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new RejectedExecutionException("Interrupted while waiting for partition", e);
+                        }
+                        // 待っている間に shutdown() されていたら、ループのスレッドはもう終わっているかもしれない。
+                        // 取り戻せたら（まだ誰も取っていなければ）、実行されないので断る
+                        if (executor.isShutdown() && executor.remove(task)) {
+                            throw new RejectedExecutionException("Mediator is closed");
+                        }
+                    });
+        }
+
+        void deliver(EventType event, AtomicLong receiveErrors) {
+            Component[] targets = subscribers[event.ordinal()];
+            ComponentRecorder[][] currentRecorders = recorders;
+            if (currentRecorders == null) {
+                for (Component component : targets) {
+                    try {
+                        component.receive(event);
+                    } catch (RuntimeException e) {
+                        // 1台の失敗で、同じパーティションのほかの機器に届かなくならないようにする
+                        receiveErrors.incrementAndGet();
+                    }
+                }
+                return;
+            }
+            ComponentRecorder[] targetRecorders = currentRecorders[event.ordinal()];
+            long start = System.nanoTime();
+            for (int i = 0; i < targets.length; i++) {
+                try {
+                    targets[i].receive(event);
+                } catch (RuntimeException e) {
+                    receiveErrors.incrementAndGet();
+                }
+                long end = System.nanoTime();
+                targetRecorders[i].recordReceive(event, end - start);
+                start = end;
+            }
+        }
+
+        // subscribers と同じ並びの記録係を、まとめて入れ替える
+        void setMetrics(DispatchMetrics metrics) {
+            if (metrics == null) {
+                recorders = null;
+                return;
+            }
+            ComponentRecorder[][] array = new ComponentRecorder[subscribers.length][];
+            for (int i = 0; i < subscribers.length; i++) {
+                array[i] = new ComponentRecorder[subscribers[i].length];
+                for (int j = 0; j < subscribers[i].length; j++) {
+                    array[i][j] = metrics.recorderFor(subscribers[i][j]);
+                }
+            }
+            recorders = array;
+        }
+    }
+
+    private final Partition[] partitions;
+    private final AtomicLong receiveErrors = new AtomicLong();
+    // setMetrics() で付けたときだけ（notify() 1回の時間を記録する）
+    private volatile DispatchMetrics metrics;
+
+    public PartitionedMediator(List<Component> devices) {
+        this(devices, Runtime.getRuntime().availableProcessors());
+    }
+
+    public PartitionedMediator(List<Component> devices, int partitionCount) {
+        if (partitionCount <= 0) {
+            throw new IllegalArgumentException("partitionCount must be positive");
+        }
+        List<List<Component>> assigned = new ArrayList<>();
+        for (int i = 0; i < partitionCount; i++) {
+            assigned.add(new ArrayList<>());
+        }
+        for (int i = 0; i < devices.size(); i++) {
+            assigned.get(i % partitionCount).add(devices.get(i));
+        }
+        partitions = new Partition[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            partitions[i] = new Partition(assigned.get(i), i);
+        }
+    }
+
+    public int getPartitionCount() {
+        return partitions.length;
+    }
+
+    // receive() が例外を投げた回数
+    public long getReceiveErrorCount() {
+        return receiveErrors.get();
+    }
+
+    @Override
+    public void notify(EventType event) {
+        DispatchMetrics current = metrics;
+        long begin = current == null ? 0 : System.nanoTime();
+        for (Partition partition : partitions) {
+            partition.loop.execute(() -> partition.deliver(event, receiveErrors));
+        }
+        if (current != null) {
+            current.histogramFor(event).record(System.nanoTime() - begin);
+        }
+    }
+
+    // 配送の時間を測るようにする（null で止める）。各パーティションのループが receive() にかかった時間と、
+    // notify() が全部のパーティションに頼み終わるまでの時間を記録する。いつ、どのスレッドから呼んでも良い。
+    public void setMetrics(DispatchMetrics metrics) {
+        for (Partition partition : partitions) {
+            partition.setMetrics(metrics);
+        }
+        this.metrics = metrics;
+    }
+
+    // これまでに notify() したイベントが、全部のコンポーネントに配り終わるまで待つ
+    public void flush() {
+        List<Future<?>> markers = new ArrayList<>();
+        for (Partition partition : partitions) {
+            markers.add(partition.loop.submit(() -> { }));
+        }
+        try {
+            for (Future<?> marker : markers) {
+                marker.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    // 残っているイベントを配ってから、ループを止める
+    @Override
+    public void close() {
+        flush();
+        for (Partition partition : partitions) {
+            partition.loop.shutdown();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package P17_Mediator;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+// PartitionedMediator のデモと、パーティションの数を変えたときのイベントの処理量の計測。
+//
+// 実行例（MediatorExample.java にも Mediator があるので、必要なファイルだけをコンパイルする。
+// 機器には SubscriptionIndexBenchmark.java の CountingDevice を使う）:
+//   javac -encoding UTF-8 -d out P14_Command/LatencyHistogram.java P17_Mediator/MediatorSample.java \
+//       P17_Mediator/DispatchMetrics.java P17_Mediator/SubscriptionIndexBenchmark.java \
+//       P17_Mediator/PartitionedMediator.java P17_Mediator/PartitionedMediatorBenchmark.java
+//   java -cp out P17_Mediator.PartitionedMediatorBenchmark [機器の数] [最大のパーティション数]
+//
+// 手元（1コア、JDK 17、機器 200,000 台）での結果の一例:
+//   SmartHomeMediator      :      1,935 events/s  (386,945,657 deliveries/s)
+//   partitions 1           :      1,945 events/s  (388,949,364 deliveries/s, x1.01)
+//   partitions 2           :      1,018 events/s  (203,514,832 deliveries/s, x0.53)
+//   partitions 4           :        568 events/s  (113,631,764 deliveries/s, x0.29)
+// コアが1つしかないので、パーティションを増やしてもスレッドが順番に動くだけで、
+// 切り替えのたびに別の機器たちをキャッシュに読み直す分だけ遅くなる。
+// コアが複数ある環境では、パーティションの数（コアの数まで）に応じて速くなるはず。
+
+public class PartitionedMediatorBenchmark {
+    public static void main(String[] args) {
+        int deviceCount = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int maxPartitions = args.length > 1 ? Integer.parseInt(args[1])
+                : Math.max(4, Runtime.getRuntime().availableProcessors());
+
+        System.out.println("=== 使い方は SmartHomeMediator と同じ ===");
+        List<Component> room = List.of(new Light(), new Curtain(), new AirConditioner());
+        try (PartitionedMediator mediator = new PartitionedMediator(room, 2)) {
+            mediator.notify(EventType.MORNING_MODE);
+            mediator.flush();
+        }
+
+        List<Component> devices = new ArrayList<>();
+        List<CountingDevice> counters = new ArrayList<>();
+        for (int i = 0; i < deviceCount; i++) {
+            CountingDevice device = new CountingDevice(EnumSet.of(EventType.MORNING_MODE, EventType.NIGHT_MODE));
+            devices.add(device);
+            counters.add(device);
+        }
+        int events = 2_000;
+        System.out.printf("%n=== 機器 %,d 台に %,d 回のイベント ===%n", deviceCount, events);
+
+        SmartHomeMediator single = new SmartHomeMediator();
+        single.setDevices(devices);
+        double baseline = 0;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < events; i++) {
+                single.notify(i % 2 == 0 ? EventType.MORNING_MODE : EventType.NIGHT_MODE);
+            }
+            baseline = events / ((System.nanoTime() - start) / 1e9);
+        }
+        System.out.printf("SmartHomeMediator      : %,10.0f events/s  (%,.0f deliveries/s)%n", baseline, baseline * deviceCount);
+
+        for (int partitions = 1; partitions <= maxPartitions; partitions *= 2) {
+            try (PartitionedMediator mediator = new PartitionedMediator(devices, partitions)) {
+                double rate = 0;
+                for (int round = 0; round < 3; round++) {
+                    long start = System.nanoTime();
+                    for (int i = 0; i < events; i++) {
+                        mediator.notify(i % 2 == 0 ? EventType.MORNING_MODE : EventType.NIGHT_MODE);
+                    }
+                    mediator.flush();
+                    rate = events / ((System.nanoTime() - start) / 1e9);
+                }
+                System.out.printf("partitions %-3d         : %,10.0f events/s  (%,.0f deliveries/s, x%.2f)%n",
+                        partitions, rate, rate * deviceCount, rate / baseline);
+            }
+        }
+
+        long total = 0;
+        for (CountingDevice counter : counters) {
+            total += counter.getReceived();
+        }
+        System.out.printf("%ntotal deliveries: %,d%n", total);
+    }
+}
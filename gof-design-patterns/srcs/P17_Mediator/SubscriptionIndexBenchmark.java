@@ -0,0 +1,107 @@
+package P17_Mediator;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+// SmartHomeMediator の購読の索引（EnumMap<EventType, Component[]>）の効果を、機器の数を変えて測る。
+//
+// 実行例（MediatorExample.java にも Mediator があるので、パッケージ全部ではなく必要なファイルだけをコンパイルする）:
+//   javac -encoding UTF-8 -d out P14_Command/LatencyHistogram.java P17_Mediator/MediatorSample.java \
+//       P17_Mediator/DispatchMetrics.java P17_Mediator/SubscriptionIndexBenchmark.java
+//   java -cp out P17_Mediator.SubscriptionIndexBenchmark
+//
+// 手元（1コア、JDK 17、朝モードを受け取る機器は 1割）での結果の一例:
+//   機器の数    全員に配る (MORNING)   索引で配る (MORNING)   索引で配る (NIGHT)
+//        100             115 ns/event              19 ns/event             143 ns/event
+//      1,000           2,003 ns/event             267 ns/event           2,337 ns/event
+//     10,000          19,963 ns/event           3,042 ns/event          23,696 ns/event
+//    100,000         238,712 ns/event          35,642 ns/event         331,164 ns/event
+// 配る手間は受け取る機器の数に比例する。夜モードは全員が受け取るので、索引があっても全員に配るのと同じくらいかかる。
+
+// 受け取ったイベントを数えるだけの機器
+class CountingDevice implements Component {
+    private final Set<EventType> events;
+    private long received;
+
+    public CountingDevice(Set<EventType> events) {
+        this.events = events;
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    @Override
+    public Set<EventType> subscribedEvents() {
+        return events;
+    }
+
+    @Override
+    public void receive(EventType event) {
+        // 興味のないイベントは default に落ちる（索引がなければ、ほとんどがここに来る）
+        switch (event) {
+            case MORNING_MODE:
+                if (events.contains(EventType.MORNING_MODE)) {
+                    received++;
+                }
+                break;
+            case NIGHT_MODE:
+                if (events.contains(EventType.NIGHT_MODE)) {
+                    received++;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+}
+
+public class SubscriptionIndexBenchmark {
+    public static void main(String[] args) {
+        System.out.println("機器の数    全員に配る (MORNING)   索引で配る (MORNING)   索引で配る (NIGHT)");
+        for (int devices : new int[] {100, 1_000, 10_000, 100_000}) {
+            List<Component> components = new ArrayList<>();
+            for (int i = 0; i < devices; i++) {
+                // 1割は朝モードと夜モード、残りは夜モードだけを受け取る
+                components.add(new CountingDevice(i % 10 == 0
+                        ? EnumSet.of(EventType.MORNING_MODE, EventType.NIGHT_MODE)
+                        : EnumSet.of(EventType.NIGHT_MODE)));
+            }
+            SmartHomeMediator mediator = new SmartHomeMediator();
+            mediator.setDevices(components);
+
+            int events = Math.max(100, 50_000_000 / devices);
+            double broadcast = 0;
+            double morning = 0;
+            double night = 0;
+            for (int round = 0; round < 3; round++) {
+                broadcast = broadcastNanos(components, events);
+                morning = notifyNanos(mediator, EventType.MORNING_MODE, events);
+                night = notifyNanos(mediator, EventType.NIGHT_MODE, events);
+            }
+            System.out.printf("%,8d    %,14.0f ns/event   %,14.0f ns/event   %,14.0f ns/event%n",
+                    devices, broadcast, morning, night);
+        }
+    }
+
+    // 索引を作る前のやり方: 全部のコンポーネントの receive を呼ぶ
+    private static double broadcastNanos(List<Component> components, int events) {
+        long start = System.nanoTime();
+        for (int i = 0; i < events; i++) {
+            for (Component component : components) {
+                component.receive(EventType.MORNING_MODE);
+            }
+        }
+        return (double) (System.nanoTime() - start) / events;
+    }
+
+    private static double notifyNanos(SmartHomeMediator mediator, EventType event, int events) {
+        long start = System.nanoTime();
+        for (int i = 0; i < events; i++) {
+            mediator.notify(event);
+        }
+        return (double) (System.nanoTime() - start) / events;
+    }
+}
@@ -0,0 +1,111 @@
+package P18_Memento;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+// 差分のメメント（Originator.saveDeltaToMemento()）のデモと、まるごと保存したときとのメモリ・復元の速さの比べ。
+//
+// 実行例:
+//   javac -encoding UTF-8 -d out P18_Memento/*.java
+//   java -cp out P18_Memento.DeltaMementoExample [保存する回数]
+//
+// 手元（1コア、JDK 17、200,000文字の文書を 2,000 回保存、1回に 1〜16文字を書き換え）での結果の一例:
+//   まるごと保存                        :      381 MB
+//   差分で保存（キーフレーム 16回に1回）:       24 MB  (6.3%)
+//   復元（まるごと）                    :      0.6 us/回
+//   復元（差分）                        :     97.9 us/回
+// まるごとのメモリは「状態の大きさ × 保存した回数」、差分ならほぼ「状態の大きさ × キーフレームの数」になる。
+// その代わり、差分の復元は状態を組み立て直す（キーフレームの写し + 多くても 15 個の差分）ので遅くなる。
+// キーフレームの間隔を狭めれば復元は速くなり、メモリは増える。
+
+public class DeltaMementoExample {
+    public static void main(String[] args) {
+        int saves = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+
+        System.out.println("=== 差分のメメント ===\n");
+        Originator originator = new Originator();
+        originator.setKeyframeInterval(3);
+        Caretaker caretaker = new Caretaker();
+        String[] states = {"今日は晴れ", "今日は晴れのち曇り", "今日は雨のち曇り", "明日は雨のち曇り", "明日は雨"};
+        for (String state : states) {
+            originator.setState(state);
+            caretaker.add(originator.saveDeltaToMemento());
+        }
+        for (int i = 0; i < caretaker.getSize(); i++) {
+            originator.getStateFromMemento(caretaker.get(i));
+        }
+
+        System.out.println("\n=== まるごと保存と差分の比べ ===\n");
+        // 大量に保存するので、Originator の表示は捨てる
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        long before = usedMemory();
+        Caretaker full = record(saves, false);
+        long fullBytes = usedMemory() - before;
+        before = usedMemory();
+        Caretaker delta = record(saves, true);
+        long deltaBytes = usedMemory() - before;
+
+        double fullMicros = 0;
+        double deltaMicros = 0;
+        for (int round = 0; round < 3; round++) {
+            fullMicros = restoreMicros(full);
+            deltaMicros = restoreMicros(delta);
+        }
+        // 同じ状態に戻ることを確かめる
+        for (int i = 0; i < saves; i += 97) {
+            if (!full.get(i).getState().equals(delta.get(i).getState())) {
+                throw new IllegalStateException("mismatch at " + i);
+            }
+        }
+        System.setOut(console);
+
+        System.out.printf("まるごと保存                        : %,8d MB%n", fullBytes / 1024 / 1024);
+        System.out.printf("差分で保存（キーフレーム 16回に1回）: %,8d MB  (%.1f%%)%n",
+                deltaBytes / 1024 / 1024, 100.0 * deltaBytes / fullBytes);
+        System.out.printf("復元（まるごと）                    : %,8.1f us/回%n", fullMicros);
+        System.out.printf("復元（差分）                        : %,8.1f us/回%n", deltaMicros);
+    }
+
+    // 200,000文字の文書を少しずつ書き換えながら、saves 回保存する
+    private static Caretaker record(int saves, boolean useDelta) {
+        Random random = new Random(42);
+        char[] document = new char[200_000];
+        for (int i = 0; i < document.length; i++) {
+            document[i] = (char) ('a' + random.nextInt(26));
+        }
+        Originator originator = new Originator();
+        originator.setKeyframeInterval(16);
+        Caretaker caretaker = new Caretaker();
+        for (int i = 0; i < saves; i++) {
+            int position = random.nextInt(document.length - 16);
+            int length = 1 + random.nextInt(16);
+            for (int j = 0; j < length; j++) {
+                document[position + j] = (char) ('a' + random.nextInt(26));
+            }
+            originator.setState(new String(document));
+            caretaker.add(useDelta ? originator.saveDeltaToMemento() : originator.saveStateToMemento());
+        }
+        return caretaker;
+    }
+
+    private static double restoreMicros(Caretaker caretaker) {
+        Random random = new Random(7);
+        Originator originator = new Originator();
+        int restores = 2_000;
+        long start = System.nanoTime();
+        for (int i = 0; i < restores; i++) {
+            originator.getStateFromMemento(caretaker.get(random.nextInt(caretaker.getSize())));
+        }
+        return (System.nanoTime() - start) / 1_000.0 / restores;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
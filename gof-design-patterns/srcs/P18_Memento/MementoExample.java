@@ -26,18 +26,57 @@ import java.util.List;
 // などのメリットもある。
 
 // 1. Memento（メメント）
+// 状態をまるごと持つ「キーフレーム」と、一つ前のメメントからの差分だけを持つ「差分」の2種類がある。
+// 差分は「先頭の prefixLength 文字と末尾の suffixLength 文字はそのままで、間を middle に置き換える」という形。
+// 大きな状態の一部だけが変わる場合、差分なら変わった所の分しかメモリを使わない。
 class Memento {
-    // 保存したい状態を保持する。セーブ内容。
+    // 保存したい状態を保持する。セーブ内容。（キーフレームのときだけ）
     private final String state;
+    // 差分のとき: 一つ前のメメントと、そこからの変更
+    private final Memento base;
+    private final int prefixLength;
+    private final int suffixLength;
+    private final String middle;
     
     // MementoはOriginatorからのみ作成可能（パッケージプライベートまたは内部クラス）
     // この例では、default（修飾子無し）なので、同じパッケージ内からのみアクセス可能。
     Memento(String state) {
         this.state = state;
+        this.base = null;
+        this.prefixLength = 0;
+        this.suffixLength = 0;
+        this.middle = null;
     }
     
+    Memento(Memento base, int prefixLength, int suffixLength, String middle) {
+        this.state = null;
+        this.base = base;
+        this.prefixLength = prefixLength;
+        this.suffixLength = suffixLength;
+        this.middle = middle;
+    }
+    
+    boolean isKeyframe() {
+        return base == null;
+    }
+    
+    // 差分なら、キーフレームまでさかのぼってから、差分を古い順に当てて組み立てる
     String getState() {
-        return state;
+        if (isKeyframe()) {
+            return state;
+        }
+        List<Memento> deltas = new ArrayList<>();
+        Memento keyframe = this;
+        while (!keyframe.isKeyframe()) {
+            deltas.add(keyframe);
+            keyframe = keyframe.base;
+        }
+        StringBuilder builder = new StringBuilder(keyframe.state);
+        for (int i = deltas.size() - 1; i >= 0; i--) {
+            Memento delta = deltas.get(i);
+            builder.replace(delta.prefixLength, builder.length() - delta.suffixLength, delta.middle);
+        }
+        return builder.toString();
     }
 }
 
@@ -47,8 +86,14 @@ class Originator {
     // 普通にステート
     private String state;
     
+    // 差分で保存する（saveDeltaToMemento）ときの、キーフレームの間隔と、前に保存したもの
+    private int keyframeInterval = 16;
+    private Memento lastSaved;
+    private String lastSavedState;
+    private int deltasSinceKeyframe;
+    
     public void setState(String state) {
-        System.out.println("状態を設定: " + state);
+        System.out.println("状態を設定: " + describe(state));
         this.state = state;
     }
     
@@ -59,14 +104,60 @@ class Originator {
     // 現在の状態をMemento（形見）として保存
     // 受け取った側（クライアント）は、そのメメントをCaretaker（世話人）に追加する。
     public Memento saveStateToMemento() {
-        System.out.println("状態をMementoに保存: " + state);
+        System.out.println("状態をMementoに保存: " + describe(state));
         return new Memento(state);
     }
     
+    // キーフレームを何回に1回にするか。復元するときに当てる差分は、多くても interval - 1 個になる。
+    public void setKeyframeInterval(int keyframeInterval) {
+        if (keyframeInterval <= 0) {
+            throw new IllegalArgumentException("keyframeInterval must be positive");
+        }
+        this.keyframeInterval = keyframeInterval;
+    }
+    
+    // 現在の状態を、前に saveDeltaToMemento() したときからの差分として保存する。
+    // keyframeInterval 回に1回は、まるごと保存する（キーフレーム）。
+    // 差分のメメントは前のメメントを覚えているので、Caretaker から取り出す順番は自由。
+    // 状態が null のとき（と、その次）は、差分が取れないのでキーフレームにする。
+    public Memento saveDeltaToMemento() {
+        Memento memento;
+        if (lastSaved == null || state == null || lastSavedState == null
+                || deltasSinceKeyframe + 1 >= keyframeInterval) {
+            memento = new Memento(state);
+            deltasSinceKeyframe = 0;
+        } else {
+            int limit = Math.min(lastSavedState.length(), state.length());
+            int prefix = 0;
+            while (prefix < limit && lastSavedState.charAt(prefix) == state.charAt(prefix)) {
+                prefix++;
+            }
+            int suffix = 0;
+            while (suffix < limit - prefix
+                    && lastSavedState.charAt(lastSavedState.length() - 1 - suffix) == state.charAt(state.length() - 1 - suffix)) {
+                suffix++;
+            }
+            memento = new Memento(lastSaved, prefix, suffix, state.substring(prefix, state.length() - suffix));
+            deltasSinceKeyframe++;
+        }
+        lastSaved = memento;
+        lastSavedState = state;
+        System.out.println("状態を" + (memento.isKeyframe() ? "キーフレーム" : "差分") + "で保存: " + describe(state));
+        return memento;
+    }
+    
     // Mementoから状態を復元
     public void getStateFromMemento(Memento memento) {
         state = memento.getState();
-        System.out.println("Mementoから状態を復元: " + state);
+        System.out.println("Mementoから状態を復元: " + describe(state));
+    }
+    
+    // 長い状態は、表示するときに先頭だけにする
+    private static String describe(String state) {
+        if (state == null || state.length() <= 40) {
+            return state;
+        }
+        return state.substring(0, 20) + "…（" + state.length() + "文字）";
     }
 }
 